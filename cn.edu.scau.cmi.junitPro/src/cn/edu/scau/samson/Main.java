@@ -1,24 +1,166 @@
-package cn.edu.scau.samson;
-
-import org.eclipse.jdt.junit.wizards.NewTestCaseWizardPageOne;
-import org.eclipse.jdt.junit.wizards.NewTestCaseWizardPageTwo;
-import org.eclipse.swt.SWT;
-import org.eclipse.swt.widgets.Composite;
-
-public class Main {
-
-	/**
-	 * @param args
-	 */
-	public static void main(String[] args) {
-		// TODO Auto-generated method stub
-//		NewTestCaseWizardPageTwo fPage2= new NewTestCaseWizardPageTwo();
-//		NewTestCaseWizardPageOne fPage1= new NewTestCaseWizardPageOne(fPage2);
-//		Composite composite= new Composite(null, SWT.NONE);
-//		fPage1.createTextArea(composite, 4);
-		System.out.println("Hello samson!");
-		//NewTestCaseWizardPageOne n1 = new NewTestCaseWizardPageOne();
-
-	}
-
-}
+package cn.edu.scau.samson;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.transform.TransformerException;
+
+import org.eclipse.jdt.junit.model.ITestElement.Result;
+
+import org.eclipse.jdt.internal.junit.model.TestRunBenchmark;
+import org.eclipse.jdt.internal.junit.model.TestRunEngine;
+import org.eclipse.jdt.internal.junit.model.TestRunSession;
+
+/**
+ * Receives a test run from a RemoteTestRunner outside of the workbench and
+ * writes it as an XML report, e.g. on a build machine.
+ * <p>
+ * Usage: <code>Main &lt;port&gt; &lt;report.xml[.gz]&gt; [timeoutSeconds]</code>
+ * </p>
+ * <p>
+ * The exit code is 0 if all tests passed, 1 if tests failed, and 2 if the
+ * test run did not complete in time or the report could not be written.
+ * </p>
+ * <p>
+ * <code>Main -benchmark receive &lt;testCount | stream file&gt;</code> measures
+ * how long it takes to build the test tree from the tree announcement of a
+ * synthetic test run, or from a recorded message stream, see {@link TestRunBenchmark}.
+ * <code>Main -benchmark export &lt;testCount&gt;</code> measures how long it
+ * takes to export a synthetic test run in the XML format of the JUnit view,
+ * e.g. with 200000 tests.
+ * </p>
+ */
+public class Main {
+
+	private static final int EXIT_OK= 0;
+	private static final int EXIT_FAILURES= 1;
+	private static final int EXIT_ERROR= 2;
+
+	private static final String BENCHMARK_OPTION= "-benchmark"; //$NON-NLS-1$
+	private static final String RECEIVE_BENCHMARK= "receive"; //$NON-NLS-1$
+	private static final String EXPORT_BENCHMARK= "export"; //$NON-NLS-1$
+	private static final String[] EXPORTERS= { "writer", "writer (gzip)", "transformer" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	/**
+	 * @param args the port, the report file and an optional timeout in seconds
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+	private static int run(String[] args) {
+		if (args.length > 0 && BENCHMARK_OPTION.equals(args[0]))
+			return benchmark(args);
+		if (args.length < 2 || args.length > 3) {
+			printUsage();
+			return EXIT_ERROR;
+		}
+		int port;
+		long timeout= 0;
+		try {
+			port= Integer.parseInt(args[0]);
+			if (args.length == 3)
+				timeout= Long.parseLong(args[2]) * 1000;
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid number: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		File report= new File(args[1]);
+
+		TestRunEngine engine= new TestRunEngine(report.getName());
+		try {
+			engine.listen(port);
+			long start= System.currentTimeMillis();
+			if (! engine.awaitCompletion(timeout)) {
+				System.err.println("Test run did not complete within " + args[2] + "s"); //$NON-NLS-1$ //$NON-NLS-2$
+				return EXIT_ERROR;
+			}
+			long received= System.currentTimeMillis();
+			engine.writeReport(report);
+			long written= System.currentTimeMillis();
+
+			TestRunSession session= engine.getTestRunSession();
+			System.out.println("Tests run: " + session.getStartedCount() + "/" + session.getTotalCount() //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", Failures: " + session.getFailureCount() //$NON-NLS-1$
+					+ ", Errors: " + session.getErrorCount() //$NON-NLS-1$
+					+ ", Ignored: " + session.getIgnoredCount() //$NON-NLS-1$
+					+ ", received in " + (received - start) + "ms, written in " + (written - received) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return engine.getTestResult() == Result.OK || engine.getTestResult() == Result.IGNORED ? EXIT_OK : EXIT_FAILURES;
+		} catch (InterruptedException e) {
+			return EXIT_ERROR;
+		} catch (IOException e) {
+			System.err.println("Cannot write " + report + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return EXIT_ERROR;
+		} finally {
+			engine.dispose();
+		}
+	}
+
+	private static int benchmark(String[] args) {
+		if (args.length != 3 || ! (RECEIVE_BENCHMARK.equals(args[1]) || EXPORT_BENCHMARK.equals(args[1]))) {
+			printUsage();
+			return EXIT_ERROR;
+		}
+		if (EXPORT_BENCHMARK.equals(args[1]))
+			return benchmarkExport(args[2]);
+		try {
+			byte[] stream;
+			File file= new File(args[2]);
+			if (file.isFile()) {
+				stream= TestRunBenchmark.readTestRunStream(file);
+			} else {
+				try {
+					stream= TestRunBenchmark.createTestRunStream(Integer.parseInt(args[2]), false);
+				} catch (NumberFormatException e) {
+					System.err.println("Neither a file nor a number: " + args[2]); //$NON-NLS-1$
+					return EXIT_ERROR;
+				}
+			}
+			long time= TestRunBenchmark.measureReceive(stream);
+			System.out.println("Received " + stream.length + " bytes in " + time / 1000000 + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return EXIT_OK;
+		} catch (InterruptedException e) {
+			return EXIT_ERROR;
+		} catch (IOException e) {
+			System.err.println("Benchmark failed: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+	}
+
+	private static int benchmarkExport(String testCount) {
+		byte[] stream;
+		try {
+			stream= TestRunBenchmark.createTestRunStream(Integer.parseInt(testCount), true);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid number: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		}
+		TestRunEngine engine= null;
+		try {
+			engine= TestRunBenchmark.replay(stream, new long[1]);
+			long[] sizes= new long[EXPORTERS.length];
+			long[] times= TestRunBenchmark.measureExport(engine.getTestRunSession(), sizes);
+			for (int i= 0; i < EXPORTERS.length; i++)
+				System.out.println(EXPORTERS[i] + ": " + sizes[i] + " bytes in " + times[i] / 1000000 + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			return EXIT_OK;
+		} catch (InterruptedException e) {
+			return EXIT_ERROR;
+		} catch (IOException e) {
+			System.err.println("Benchmark failed: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		} catch (TransformerException e) {
+			System.err.println("Benchmark failed: " + e.getMessage()); //$NON-NLS-1$
+			return EXIT_ERROR;
+		} finally {
+			if (engine != null)
+				engine.dispose();
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: Main <port> <report.xml[.gz]> [timeoutSeconds]"); //$NON-NLS-1$
+		System.err.println("       Main -benchmark receive <testCount | stream file>"); //$NON-NLS-1$
+		System.err.println("       Main -benchmark export <testCount>"); //$NON-NLS-1$
+	}
+
+}
@@ -54,6 +54,20 @@ public class JUnitLaunchConfigurationConstants {
 
 	public static final String ATTR_TEST_RUNNER_KIND= JUnitPlugin.PLUGIN_ID+".TEST_KIND"; //$NON-NLS-1$
 
+	/**
+	 * Boolean attribute: <code>true</code> iff the test run should be received by a
+	 * {@link org.eclipse.jdt.internal.junit.model.NioTestRunnerClient}, which shares
+	 * one selector thread with all other test runs. Default is <code>false</code>.
+	 */
+	public static final String ATTR_NIO_CLIENT= JUnitPlugin.PLUGIN_ID+".NIO_CLIENT"; //$NON-NLS-1$
+
+	/**
+	 * Boolean attribute: <code>true</code> iff the client should ask the test runner
+	 * for the {@link org.eclipse.jdt.internal.junit.model.BinaryMessageIds binary protocol}.
+	 * Only for test runners that implement it. Default is <code>false</code>.
+	 */
+	public static final String ATTR_BINARY_PROTOCOL= JUnitPlugin.PLUGIN_ID+".BINARY_PROTOCOL"; //$NON-NLS-1$
+
 	public static ITestKind getTestRunnerKind(ILaunchConfiguration launchConfiguration) {
 		try {
 			String loaderId = launchConfiguration.getAttribute(JUnitLaunchConfigurationConstants.ATTR_TEST_RUNNER_KIND, (String) null);
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the frames of the {@link BinaryMessageIds binary protocol} directly
+ * from the receive buffer and passes them to the client. Strings are decoded
+ * in place from the buffer, test ids are cached per id, and test names are
+ * remembered from the test tree, so that start and end frames of known tests
+ * do not allocate at all.
+ */
+class BinaryMessageDecoder {
+
+	private static final long INCOMPLETE= -1;
+	private static final int INITIAL_TABLE_SIZE= 1024;
+	/**
+	 * Largest test id. The RemoteTestRunner numbers the tests consecutively,
+	 * and the id tables are indexed by id.
+	 */
+	private static final int MAX_ID= (1 << 24) - 1;
+	/**
+	 * Largest length of a string in bytes. The client has to buffer a frame
+	 * until it is complete.
+	 */
+	private static final int MAX_STRING_LENGTH= 1 << 24;
+
+	private final CharsetDecoder fDecoder;
+	private CharBuffer fChars= CharBuffer.allocate(256);
+
+	/**
+	 * Test id strings, indexed by test id.
+	 */
+	private String[] fIds= new String[INITIAL_TABLE_SIZE];
+	/**
+	 * Test names from the test tree, indexed by test id.
+	 */
+	private String[] fNames= new String[INITIAL_TABLE_SIZE];
+
+	public BinaryMessageDecoder() {
+		fDecoder= Charset.forName("UTF-8").newDecoder() //$NON-NLS-1$
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Decodes all complete frames of <code>in</code>. The bytes of an
+	 * incomplete last frame are left in <code>in</code>, so the caller has to
+	 * compact the buffer (and grow it if it is full) before reading more bytes
+	 * into it.
+	 *
+	 * @param in the bytes to decode
+	 * @param client the client that receives the decoded messages
+	 * @throws ProtocolException if the bytes are not a valid frame
+	 */
+	public void decode(ByteBuffer in, RemoteTestRunnerClient client) throws ProtocolException {
+		while (in.hasRemaining()) {
+			int frameStart= in.position();
+			if (! decodeFrame(in, client)) {
+				in.position(frameStart);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @param in the buffer positioned at the opcode
+	 * @param client the client
+	 * @return <code>false</code> iff the frame is incomplete
+	 * @throws ProtocolException if the frame is invalid
+	 */
+	private boolean decodeFrame(ByteBuffer in, RemoteTestRunnerClient client) throws ProtocolException {
+		byte opcode= in.get();
+		switch (opcode) {
+			case BinaryMessageIds.TEST_TREE: {
+				int id= readInt(in, MAX_ID);
+				if (id < 0)
+					return false;
+				String name= readString(in);
+				if (name == null || ! in.hasRemaining())
+					return false;
+				boolean isSuite= in.get() != 0;
+				int testCount= readInt(in, Integer.MAX_VALUE);
+				if (testCount < 0)
+					return false;
+				setName(id, name);
+				client.notifyTestTreeEntry(getId(id), name, isSuite, testCount);
+				return true;
+			}
+			case BinaryMessageIds.TEST_START:
+			case BinaryMessageIds.TEST_END: {
+				int id= readInt(in, MAX_ID);
+				if (id < 0)
+					return false;
+				String name= readString(in);
+				if (name == null)
+					return false;
+				if (name.length() == 0)
+					name= getName(id);
+				if (opcode == BinaryMessageIds.TEST_START)
+					client.notifyTestStarted(getId(id), name);
+				else
+					client.notifyTestEnded(getId(id), name);
+				return true;
+			}
+			case BinaryMessageIds.TEST_ERROR:
+			case BinaryMessageIds.TEST_FAILED: {
+				int id= readInt(in, MAX_ID);
+				if (id < 0)
+					return false;
+				String name= readString(in);
+				if (name == null)
+					return false;
+				String trace= readString(in);
+				if (trace == null)
+					return false;
+				String expected= readString(in);
+				if (expected == null)
+					return false;
+				String actual= readString(in);
+				if (actual == null)
+					return false;
+				if (name.length() == 0)
+					name= getName(id);
+				int status= opcode == BinaryMessageIds.TEST_ERROR ? ITestRunListener2.STATUS_ERROR : ITestRunListener2.STATUS_FAILURE;
+				client.notifyTestFailed(status, getId(id), name, trace, expected, actual);
+				return true;
+			}
+			case BinaryMessageIds.TEST_RERAN: {
+				int id= readInt(in, MAX_ID);
+				if (id < 0)
+					return false;
+				String className= readString(in);
+				if (className == null)
+					return false;
+				String testName= readString(in);
+				if (testName == null || ! in.hasRemaining())
+					return false;
+				int status= in.get();
+				if (status != ITestRunListener2.STATUS_OK && status != ITestRunListener2.STATUS_ERROR && status != ITestRunListener2.STATUS_FAILURE)
+					throw new ProtocolException("Unknown status " + status); //$NON-NLS-1$
+				String trace= readString(in);
+				if (trace == null)
+					return false;
+				String expected= readString(in);
+				if (expected == null)
+					return false;
+				String actual= readString(in);
+				if (actual == null)
+					return false;
+				client.notifyTestReran(getId(id), className, testName, status, trace, expected, actual);
+				return true;
+			}
+			case BinaryMessageIds.TEST_RUN_END:
+			case BinaryMessageIds.TEST_STOPPED: {
+				long elapsedTime= readLong(in);
+				if (elapsedTime == INCOMPLETE)
+					return false;
+				if (opcode == BinaryMessageIds.TEST_RUN_END)
+					client.testRunEnded(elapsedTime);
+				else
+					client.testRunStopped(elapsedTime);
+				return true;
+			}
+			default:
+				throw new ProtocolException("Unknown opcode " + opcode); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * @param in the buffer
+	 * @param max the largest valid value
+	 * @return the unsigned varint, or -1 if it is incomplete
+	 * @throws ProtocolException if the value is larger than <code>max</code>
+	 */
+	private int readInt(ByteBuffer in, int max) throws ProtocolException {
+		long value= readLong(in);
+		if (value > max)
+			throw new ProtocolException("Integer too large: " + value); //$NON-NLS-1$
+		return (int) value;
+	}
+
+	/**
+	 * @param in the buffer
+	 * @return the unsigned varint, or {@link #INCOMPLETE}
+	 * @throws ProtocolException if the varint is longer than 64 bits or does
+	 * 	not fit into a non-negative <code>long</code>
+	 */
+	private long readLong(ByteBuffer in) throws ProtocolException {
+		long result= 0;
+		for (int shift= 0; shift < 64; shift+= 7) {
+			if (! in.hasRemaining())
+				return INCOMPLETE;
+			byte b= in.get();
+			result|= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (result < 0)
+					throw new ProtocolException("Integer too large: " + Long.toHexString(result)); //$NON-NLS-1$
+				return result;
+			}
+		}
+		throw new ProtocolException("Malformed varint"); //$NON-NLS-1$
+	}
+
+	/**
+	 * @param in the buffer
+	 * @return the string, or <code>null</code> if it is incomplete
+	 * @throws ProtocolException if the string is too long
+	 */
+	private String readString(ByteBuffer in) throws ProtocolException {
+		int length= readInt(in, MAX_STRING_LENGTH);
+		if (length < 0 || in.remaining() < length)
+			return null;
+		if (length == 0)
+			return ""; //$NON-NLS-1$
+
+		int limit= in.limit();
+		in.limit(in.position() + length);
+		if (fChars.capacity() < length)
+			fChars= CharBuffer.allocate(Math.max(length, 2 * fChars.capacity()));
+		fChars.clear();
+		fDecoder.reset();
+		fDecoder.decode(in, fChars, true);
+		fDecoder.flush(fChars);
+		in.limit(limit);
+		return new String(fChars.array(), 0, fChars.position());
+	}
+
+	private String getId(int id) {
+		if (id >= fIds.length)
+			fIds= grow(fIds, id);
+		String result= fIds[id];
+		if (result == null) {
+			result= Integer.toString(id);
+			fIds[id]= result;
+		}
+		return result;
+	}
+
+	private String getName(int id) {
+		if (id < fNames.length && fNames[id] != null)
+			return fNames[id];
+		return ""; //$NON-NLS-1$
+	}
+
+	private void setName(int id, String name) {
+		if (id >= fNames.length)
+			fNames= grow(fNames, id);
+		fNames[id]= name;
+	}
+
+	private static String[] grow(String[] table, int index) {
+		String[] result= new String[Math.max(index + 1, 2 * table.length)];
+		System.arraycopy(table, 0, result, 0, table.length);
+		return result;
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+/**
+ * Message identifiers of the binary ("v3-binary") RemoteTestRunner protocol.
+ * <p>
+ * Negotiation: if enabled by {@link org.eclipse.jdt.internal.junit.launcher.JUnitLaunchConfigurationConstants#ATTR_BINARY_PROTOCOL},
+ * the client sends after connecting
+ * {@link #PROTOCOL_REQUEST}<code>+</code>{@link #VERSION}. Runners that do not
+ * know the request ignore it and talk the text protocol of
+ * {@link org.eclipse.jdt.internal.junit.runner.MessageIds}. A runner that
+ * accepts it sends the usual text line
+ * <code>TEST_RUN_START+count+" "+</code>{@link #VERSION} and switches to
+ * binary frames for all following messages.
+ * </p>
+ * <p>
+ * Frame format: one opcode byte followed by the opcode's fields. Ints and longs
+ * are unsigned varints (7 bits per byte, least significant group first, high
+ * bit set on all but the last byte). Strings are a varint byte length followed
+ * by the UTF-8 bytes. A status is one byte with one of the
+ * {@link ITestRunListener2} <code>STATUS_*</code> constants.
+ * </p>
+ * <pre>
+ * TEST_TREE:    id, name, isSuite (byte 0/1), testCount
+ * TEST_START:   id, name
+ * TEST_END:     id, name
+ * TEST_ERROR:   id, name, trace, expected, actual
+ * TEST_FAILED:  id, name, trace, expected, actual
+ * TEST_RERAN:   id, className, testName, status, trace, expected, actual
+ * TEST_RUN_END: elapsedTime
+ * TEST_STOPPED: elapsedTime
+ * </pre>
+ * An empty name in TEST_START and TEST_END stands for the name announced in
+ * the TEST_TREE frame of the same id. Empty expected and actual strings mean
+ * that the failure is not a comparison failure.
+ */
+public final class BinaryMessageIds {
+
+	/**
+	 * The protocol version reported by runners that switched to binary frames.
+	 */
+	public static final String VERSION= "v3-binary"; //$NON-NLS-1$
+
+	/**
+	 * Client request to use the binary protocol. Sent as text line, followed by {@link #VERSION}.
+	 */
+	public static final String PROTOCOL_REQUEST= ">PROTOCL"; //$NON-NLS-1$
+
+	public static final byte TEST_TREE= 1;
+	public static final byte TEST_START= 2;
+	public static final byte TEST_END= 3;
+	public static final byte TEST_ERROR= 4;
+	public static final byte TEST_FAILED= 5;
+	public static final byte TEST_RERAN= 6;
+	public static final byte TEST_RUN_END= 7;
+	public static final byte TEST_STOPPED= 8;
+
+	private BinaryMessageIds() {
+		// no instance
+	}
+}
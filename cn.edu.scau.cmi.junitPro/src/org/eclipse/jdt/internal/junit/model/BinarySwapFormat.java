@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.eclipse.jdt.internal.junit.model.TestElement.Status;
+
+/**
+ * The format of the swap files of {@link TestRunSession#swapOut()}.
+ * <p>
+ * Unlike the XML format of {@link JUnitModel#exportTestRunSession(TestRunSession, java.io.File)},
+ * the swap format is private to the running workbench, so it stores the
+ * test tree exactly as it is in memory, including test ids, packed states
+ * and times. Swap files are read by {@link MappedSwapFile}, which does not
+ * replay any status changes and only reads the parts of the tree that are
+ * accessed.
+ * </p>
+ * Layout (all numbers are big-endian <code>int</code>s unless noted):
+ * <pre>
+ * magic version
+ * totalCount startedCount failureCount errorCount ignoredCount
+ * stringCount string*                         string: byteLength UTF-8 bytes, byteLength -1 for null
+ * elementCount                                elements in pre-order, the test root first
+ * subtreeSize[elementCount]                   number of elements in the subtree of the element
+ * state[elementCount]                         byte: packed status and flags
+ * childrenStatus[elementCount]                byte: status ordinal, -1 if unknown, -2 for test cases
+ * time[elementCount]                          packed time
+ * id[elementCount]                            the id if &gt;= 0, otherwise -(index in string table + 1)
+ * name[elementCount]                          index in string table
+ * className[elementCount]                     index in string table, -1 if the name is not split
+ * (trace expected actual)*                    failure data, as failure strings
+ * failureOffset[elementCount]                 offset of the failure data after the className column, or -1
+ * </pre>
+ * Failure strings of at least {@link #COMPRESSION_THRESHOLD} bytes are stored
+ * deflated if that makes them smaller:
+ * <pre>
+ * -(deflatedLength + 2) byteLength deflated UTF-8 bytes
+ * </pre>
+ * Traces mostly consist of similar stack frames, so this usually shrinks
+ * the swap files of failure-heavy runs several times.
+ */
+final class BinarySwapFormat {
+
+	static final int MAGIC= 0x4A555357; // "JUSW"
+	static final int VERSION= 3;
+	/**
+	 * The oldest version that can be read. Version 2 has no compressed strings.
+	 */
+	static final int MIN_VERSION= 2;
+
+	/**
+	 * Size of the header up to and including the string count.
+	 */
+	static final int HEADER_SIZE= 8 * 4;
+
+	/**
+	 * Children status of test cases.
+	 */
+	static final byte TEST_CASE= -2;
+
+	static final String ENCODING= "UTF-8"; //$NON-NLS-1$
+	private static final int BUFFER_SIZE= 64 * 1024;
+
+	/**
+	 * Minimum length in bytes of failure strings that are compressed.
+	 */
+	private static final int COMPRESSION_THRESHOLD= 256;
+
+	/**
+	 * Compresses failure strings with a reusable deflater and output buffer.
+	 */
+	private static final class StringCompressor {
+		private final Deflater fDeflater= new Deflater(Deflater.BEST_SPEED);
+		private byte[] fBuffer= new byte[4 * 1024];
+
+		/**
+		 * @param bytes the bytes to compress
+		 * @return the length of the deflated bytes in {@link #getBuffer()},
+		 *         or -1 if they would not be smaller than the given bytes
+		 */
+		int compress(byte[] bytes) {
+			if (fBuffer.length < bytes.length)
+				fBuffer= new byte[Math.max(bytes.length, 2 * fBuffer.length)];
+			fDeflater.reset();
+			fDeflater.setInput(bytes);
+			fDeflater.finish();
+			int length= 0;
+			while (! fDeflater.finished() && length < bytes.length)
+				length+= fDeflater.deflate(fBuffer, length, bytes.length - length);
+			return fDeflater.finished() && length < bytes.length ? length : -1;
+		}
+
+		byte[] getBuffer() {
+			return fBuffer;
+		}
+
+		void end() {
+			fDeflater.end();
+		}
+	}
+
+	private BinarySwapFormat() {
+		// no instance
+	}
+
+	/**
+	 * Writes the given test tree and the counters of the test run session.
+	 *
+	 * @param session the session
+	 * @param root the test tree of the session
+	 * @param out the stream, is not closed
+	 * @throws IOException if writing failed
+	 */
+	public static void write(TestRunSession session, TestRoot root, OutputStream out) throws IOException {
+		List/*<TestElement>*/ elementList= new ArrayList();
+		int[] subtreeSizes= collectElements(root, elementList);
+		TestElement[] elements= (TestElement[]) elementList.toArray(new TestElement[elementList.size()]);
+		int count= elements.length;
+
+		HashMap/*<String, Integer>*/ stringIndices= new HashMap();
+		List/*<String>*/ strings= new ArrayList();
+		byte[] states= new byte[count];
+		byte[] childrenStates= new byte[count];
+		int[] times= new int[count];
+		int[] ids= new int[count];
+		int[] names= new int[count];
+		int[] classNames= new int[count];
+
+		for (int i= 0; i < count; i++) {
+			TestElement element= elements[i];
+			states[i]= element.getState();
+			times[i]= element.getTime();
+
+			String id= element.getId();
+			int intId= TestElementIndex.parseId(id);
+			ids[i]= intId != -1 ? intId : -(getStringIndex(id, stringIndices, strings) + 1);
+
+			if (element instanceof TestSuiteElement) {
+				Status childrenStatus= ((TestSuiteElement) element).getChildrenStatus();
+				childrenStates[i]= (byte) (childrenStatus == null ? -1 : childrenStatus.ordinal());
+				names[i]= getStringIndex(element.getTestName(), stringIndices, strings);
+				classNames[i]= -1;
+			} else {
+				TestCaseElement testCase= (TestCaseElement) element;
+				TestNamePool.ClassName className= testCase.getSharedClassName();
+				childrenStates[i]= TEST_CASE;
+				if (className == null) {
+					names[i]= getStringIndex(testCase.getTestName(), stringIndices, strings);
+					classNames[i]= -1;
+				} else {
+					names[i]= getStringIndex(testCase.getTestMethodName(), stringIndices, strings);
+					classNames[i]= getStringIndex(className.getRawName(), stringIndices, strings);
+				}
+			}
+		}
+
+		DataOutputStream data= new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(session.fTotalCount);
+		data.writeInt(session.fStartedCount);
+		data.writeInt(session.fFailureCount);
+		data.writeInt(session.fErrorCount);
+		data.writeInt(session.fIgnoredCount);
+
+		int stringCount= strings.size();
+		data.writeInt(stringCount);
+		for (int i= 0; i < stringCount; i++)
+			writeString(data, (String) strings.get(i));
+
+		data.writeInt(count);
+		writeInts(data, subtreeSizes, count);
+		data.write(states);
+		data.write(childrenStates);
+		writeInts(data, times, count);
+		writeInts(data, ids, count);
+		writeInts(data, names, count);
+		writeInts(data, classNames, count);
+
+		int[] failureOffsets= new int[count];
+		int failuresStart= data.size();
+		StringCompressor compressor= new StringCompressor();
+		try {
+			for (int i= 0; i < count; i++) {
+				TestElement element= elements[i];
+				if (element.hasFlag(TestElement.FLAG_FAILURE_DATA)) {
+					failureOffsets[i]= data.size() - failuresStart;
+					writeFailureString(data, element.getTrace(), compressor);
+					writeFailureString(data, element.getExpected(), compressor);
+					writeFailureString(data, element.getActual(), compressor);
+					if (data.size() == Integer.MAX_VALUE) // DataOutputStream#size() saturates
+						throw new IOException("Swap file too large"); //$NON-NLS-1$
+				} else {
+					failureOffsets[i]= -1;
+				}
+			}
+		} finally {
+			compressor.end();
+		}
+		writeInts(data, failureOffsets, count);
+		data.flush();
+	}
+
+	/**
+	 * @param root the test root
+	 * @param elements the list that receives the root and all its descendants in pre-order
+	 * @return the size of the subtree of each element
+	 */
+	private static int[] collectElements(TestRoot root, List/*<TestElement>*/ elements) {
+		int[] subtreeSizes= new int[64];
+		// path from the root to the current suite: element indices and next child indices
+		int[] suiteIndices= new int[16];
+		int[] nextChildren= new int[16];
+		int depth= 0;
+		elements.add(root);
+		suiteIndices[0]= 0;
+		nextChildren[0]= 0;
+		while (depth >= 0) {
+			TestSuiteElement suite= (TestSuiteElement) elements.get(suiteIndices[depth]);
+			if (nextChildren[depth] == suite.getChildCount()) {
+				int suiteIndex= suiteIndices[depth];
+				subtreeSizes[suiteIndex]= elements.size() - suiteIndex;
+				depth--;
+				continue;
+			}
+			TestElement child= suite.getChild(nextChildren[depth]++);
+			int index= elements.size();
+			elements.add(child);
+			if (index == subtreeSizes.length)
+				subtreeSizes= grow(subtreeSizes);
+			if (child instanceof TestSuiteElement) {
+				depth++;
+				if (depth == suiteIndices.length) {
+					suiteIndices= grow(suiteIndices);
+					nextChildren= grow(nextChildren);
+				}
+				suiteIndices[depth]= index;
+				nextChildren[depth]= 0;
+			} else {
+				subtreeSizes[index]= 1;
+			}
+		}
+		return subtreeSizes;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] result= new int[2 * array.length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static int getStringIndex(String string, HashMap/*<String, Integer>*/ stringIndices, List/*<String>*/ strings) {
+		Integer index= (Integer) stringIndices.get(string);
+		if (index == null) {
+			index= Integer.valueOf(strings.size());
+			stringIndices.put(string, index);
+			strings.add(string);
+		}
+		return index.intValue();
+	}
+
+	private static void writeInts(DataOutputStream data, int[] values, int count) throws IOException {
+		for (int i= 0; i < count; i++)
+			data.writeInt(values[i]);
+	}
+
+	private static void writeString(DataOutputStream data, String string) throws IOException {
+		if (string == null) {
+			data.writeInt(-1);
+			return;
+		}
+		byte[] bytes= string.getBytes(ENCODING);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static void writeFailureString(DataOutputStream data, String string, StringCompressor compressor) throws IOException {
+		if (string == null || string.length() < COMPRESSION_THRESHOLD / 3) { // a char takes at most 3 bytes
+			writeString(data, string);
+			return;
+		}
+		byte[] bytes= string.getBytes(ENCODING);
+		int length= bytes.length >= COMPRESSION_THRESHOLD ? compressor.compress(bytes) : -1;
+		if (length == -1) {
+			data.writeInt(bytes.length);
+			data.write(bytes);
+		} else {
+			data.writeInt(-(length + 2));
+			data.writeInt(bytes.length);
+			data.write(compressor.getBuffer(), 0, length);
+		}
+	}
+}
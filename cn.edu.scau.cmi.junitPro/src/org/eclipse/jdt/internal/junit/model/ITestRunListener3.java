@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+
+/**
+ * An {@link ITestRunListener2} that receives the events of a
+ * {@link RemoteTestRunnerClient} in batches. The client calls
+ * {@link #testRunEvents(TestRunEvent[], int)} instead of the single event
+ * methods.
+ */
+public interface ITestRunListener3 extends ITestRunListener2 {
+
+	/**
+	 * A batch of events has been received.
+	 * <p>
+	 * The event objects are reused by the client after this method returns,
+	 * so they must not be kept.
+	 * </p>
+	 *
+	 * @param events the events, in the order they have been received
+	 * @param count the number of valid events in <code>events</code>
+	 */
+	public void testRunEvents(TestRunEvent[] events, int count);
+}
@@ -16,31 +16,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 import org.eclipse.swt.widgets.Display;
 
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.ISafeRunnable;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.ListenerList;
+import org.eclipse.core.runtime.SafeRunner;
 
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchPart;
@@ -136,12 +129,7 @@ public final class JUnitModel {
 			//TODO: Do notifications have to be sent in UI thread?
 			// Check concurrent access to fTestRunSessions (no problem inside asyncExec())
 			int maxCount= JUnitPlugin.getDefault().getPreferenceStore().getInt(JUnitPreferencesConstants.MAX_TEST_RUNS);
-			int toDelete= fTestRunSessions.size() - maxCount;
-			while (toDelete > 0) {
-				toDelete--;
-				TestRunSession session= (TestRunSession) fTestRunSessions.removeLast();
-				notifyTestRunSessionRemoved(session);
-			}
+			trimTestRunSessions(maxCount);
 
 			TestRunSession testRunSession= new TestRunSession(launch, javaProject, port);
 			addTestRunSession(testRunSession);
@@ -290,6 +278,21 @@ public final class JUnitModel {
 	private final LinkedList/*<TestRunSession>*/ fTestRunSessions= new LinkedList();
 	private final ILaunchListener fLaunchListener= new JUnitLaunchListener();
 
+	/**
+	 * Maximum time in milliseconds to wait for swap files on shutdown.
+	 */
+	private static final long SWAP_OUT_TIMEOUT= 10000;
+
+	/**
+	 * Suffix of exported files that are written in gzip format.
+	 */
+	private static final String GZIP_SUFFIX= ".gz"; //$NON-NLS-1$
+
+	/**
+	 * The persistent history, or <code>null</code> if the model is not started.
+	 */
+	private volatile TestRunHistory fHistory;
+
 	/**
 	 * Starts the model (called by the {@link JUnitPlugin} on startup).
 	 */
@@ -297,33 +300,14 @@ public final class JUnitModel {
 		ILaunchManager launchManager= DebugPlugin.getDefault().getLaunchManager();
 		launchManager.addLaunchListener(fLaunchListener);
 
-/*
- * TODO: restore on restart:
- * - only import headers!
- * - only import last n sessions; remove all other files in historyDirectory
- */
-//		File historyDirectory= JUnitPlugin.getHistoryDirectory();
-//		File[] swapFiles= historyDirectory.listFiles();
-//		if (swapFiles != null) {
-//			Arrays.sort(swapFiles, new Comparator() {
-//				public int compare(Object o1, Object o2) {
-//					String name1= ((File) o1).getName();
-//					String name2= ((File) o2).getName();
-//					return name1.compareTo(name2);
-//				}
-//			});
-//			for (int i= 0; i < swapFiles.length; i++) {
-//				final File file= swapFiles[i];
-//				SafeRunner.run(new ISafeRunnable() {
-//					public void run() throws Exception {
-//						importTestRunSession(file );
-//					}
-//					public void handleException(Throwable exception) {
-//						JUnitPlugin.log(exception);
-//					}
-//				});
-//			}
-//		}
+		try {
+			TestRunHistory history= new TestRunHistory(JUnitPlugin.getHistoryDirectory());
+			int maxCount= JUnitPlugin.getDefault().getPreferenceStore().getInt(JUnitPreferencesConstants.MAX_TEST_RUNS);
+			fTestRunSessions.addAll(history.load(maxCount)); // headers only, the listeners are not interested yet
+			fHistory= history;
+		} catch (IllegalStateException e) {
+			JUnitPlugin.log(e); // no instance location
+		}
 
 		addTestRunSessionListener(new LegacyTestRunSessionListener());
 	}
@@ -335,28 +319,38 @@ public final class JUnitModel {
 		ILaunchManager launchManager= DebugPlugin.getDefault().getLaunchManager();
 		launchManager.removeLaunchListener(fLaunchListener);
 
-		File historyDirectory= JUnitPlugin.getHistoryDirectory();
-		File[] swapFiles= historyDirectory.listFiles();
-		if (swapFiles != null) {
-			for (int i= 0; i < swapFiles.length; i++) {
-				swapFiles[i].delete();
-			}
+		// keep the history: write the swap files of the sessions that are still in memory
+		for (Iterator iter= fTestRunSessions.iterator(); iter.hasNext();) {
+			final TestRunSession session= (TestRunSession) iter.next();
+			SafeRunner.run(new ISafeRunnable() {
+				public void run() throws Exception {
+					session.swapOut();
+				}
+				public void handleException(Throwable exception) {
+					JUnitPlugin.log(exception);
+				}
+			});
 		}
-
-//		for (Iterator iter= fTestRunSessions.iterator(); iter.hasNext();) {
-//			final TestRunSession session= (TestRunSession) iter.next();
-//			SafeRunner.run(new ISafeRunnable() {
-//				public void run() throws Exception {
-//					session.swapOut();
-//				}
-//				public void handleException(Throwable exception) {
-//					JUnitPlugin.log(exception);
-//				}
-//			});
-//		}
+		long deadline= System.currentTimeMillis() + SWAP_OUT_TIMEOUT;
+		for (Iterator iter= fTestRunSessions.iterator(); iter.hasNext();) {
+			TestRunSession session= (TestRunSession) iter.next();
+			if (! session.awaitSwapOut(Math.max(deadline - System.currentTimeMillis(), 1)))
+				break;
+		}
+		fHistory= null;
 	}
 
 
+	/**
+	 * @return the persistent history of the started model, or <code>null</code>
+	 */
+	static TestRunHistory getTestRunHistory() {
+		JUnitPlugin plugin= JUnitPlugin.getDefault();
+		if (plugin == null)
+			return null;
+		return JUnitPlugin.getModel().fHistory;
+	}
+
 	public void addTestRunSessionListener(ITestRunSessionListener listener) {
 		fTestRunSessionListeners.add(listener);
 	}
@@ -389,28 +383,118 @@ public final class JUnitModel {
 		Assert.isLegal(! fTestRunSessions.contains(testRunSession));
 		fTestRunSessions.addFirst(testRunSession);
 		notifyTestRunSessionAdded(testRunSession);
+		enforceMemoryBudget();
+	}
+
+	/**
+	 * Removes the least recently viewed sessions until at most the given
+	 * number of sessions are left. Running sessions are not removed.
+	 * <p>
+	 * <b>To be called in the UI thread only!</b>
+	 * </p>
+	 *
+	 * @param maxCount the maximum number of sessions
+	 */
+	private void trimTestRunSessions(int maxCount) {
+		int toDelete= fTestRunSessions.size() - maxCount;
+		if (toDelete <= 0)
+			return;
+		List/*<TestRunSession>*/ sessions= getLeastRecentlyViewedSessions();
+		for (int i= 0; i < sessions.size() && toDelete > 0; i++) {
+			TestRunSession session= (TestRunSession) sessions.get(i);
+			if (session.isRunning() || session.isStarting())
+				continue;
+			toDelete--;
+			fTestRunSessions.remove(session);
+			notifyTestRunSessionRemoved(session);
+			session.removeSwapFile();
+		}
+	}
+
+	/**
+	 * Swaps out the test trees of the least recently viewed sessions while
+	 * the estimated heap used by all test trees exceeds the budget
+	 * (see {@link JUnitPreferencesConstants#MAX_TEST_RUN_MEMORY}). Sessions
+	 * that cannot be swapped out, e.g. running or displayed ones, are skipped.
+	 * <p>
+	 * <b>To be called in the UI thread only!</b>
+	 * </p>
+	 *
+	 * @see TestRunSession#getEstimatedMemory()
+	 */
+	public void enforceMemoryBudget() {
+		long budget= getMemoryBudget();
+		List/*<TestRunSession>*/ sessions= getLeastRecentlyViewedSessions();
+		long[] estimates= new long[sessions.size()];
+		long total= 0;
+		for (int i= 0; i < estimates.length; i++) {
+			estimates[i]= ((TestRunSession) sessions.get(i)).getEstimatedMemory();
+			total+= estimates[i];
+		}
+		for (int i= 0; i < estimates.length && total > budget; i++) {
+			if (estimates[i] > 0 && ((TestRunSession) sessions.get(i)).swapOut())
+				total-= estimates[i];
+		}
+	}
+
+	/**
+	 * @return the sessions, least recently viewed first
+	 */
+	private List/*<TestRunSession>*/ getLeastRecentlyViewedSessions() {
+		List/*<TestRunSession>*/ sessions= new ArrayList(fTestRunSessions);
+		Collections.sort(sessions, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long time1= ((TestRunSession) o1).getLastViewedTime();
+				long time2= ((TestRunSession) o2).getLastViewedTime();
+				return time1 < time2 ? -1 : time1 == time2 ? 0 : 1;
+			}
+		});
+		return sessions;
+	}
+
+	/**
+	 * @return the maximum estimated heap of the test trees in memory, in bytes
+	 */
+	private static long getMemoryBudget() {
+		JUnitPlugin plugin= JUnitPlugin.getDefault();
+		int megabytes= plugin == null ? 0 : plugin.getPreferenceStore().getInt(JUnitPreferencesConstants.MAX_TEST_RUN_MEMORY);
+		if (megabytes <= 0)
+			return Runtime.getRuntime().maxMemory() / 4;
+		return megabytes * 1024L * 1024L;
 	}
 
 	/**
 	 * Imports a test run session from the given file.
+	 * <p>
+	 * <b>To be called in the UI thread only!</b>
+	 * </p>
 	 *
-	 * @param file a file containing a test run session transcript
+	 * @param file a file containing a test run session transcript, can be gzip compressed
 	 * @return the imported test run session
 	 * @throws CoreException if the import failed
 	 */
 	public static TestRunSession importTestRunSession(File file) throws CoreException {
+		TestRunSession session= readTestRunSession(file, null);
+		JUnitPlugin.getModel().addTestRunSession(session);
+		return session;
+	}
+
+	/**
+	 * Reads a test run session from the given file, but does not add it to
+	 * the model. Can be called in any thread.
+	 *
+	 * @param file a file containing a test run session transcript or a JUnit report,
+	 *        can be gzip compressed
+	 * @param monitor the progress monitor, or <code>null</code>
+	 * @return the test run session
+	 * @throws CoreException if the import failed
+	 * @throws org.eclipse.core.runtime.OperationCanceledException if the monitor has been cancelled
+	 * @see #addTestRunSession(TestRunSession)
+	 */
+	public static TestRunSession readTestRunSession(File file, IProgressMonitor monitor) throws CoreException {
 		try {
-			SAXParserFactory parserFactory= SAXParserFactory.newInstance();
-//			parserFactory.setValidating(true); // TODO: add DTD and debug flag
-			SAXParser parser= parserFactory.newSAXParser();
-			TestRunHandler handler= new TestRunHandler();
-			parser.parse(file, handler);
-			TestRunSession session= handler.getTestRunSession();
-			JUnitPlugin.getModel().addTestRunSession(session);
-			return session;
-		} catch (ParserConfigurationException e) {
-			throwImportError(file, e);
-		} catch (SAXException e) {
+			return new TestRunImporter().read(file, monitor);
+		} catch (XMLStreamException e) {
 			throwImportError(file, e);
 		} catch (IOException e) {
 			throwImportError(file, e);
@@ -418,24 +502,80 @@ public final class JUnitModel {
 		return null; // does not happen
 	}
 
+	/**
+	 * Reads the JUnit XML reports in the given directory into one test run
+	 * session, but does not add it to the model. The files are read
+	 * concurrently. Can be called in any thread.
+	 *
+	 * @param directory a directory containing JUnit XML reports, e.g. <code>TEST-*.xml</code> files
+	 * @param monitor the progress monitor, or <code>null</code>
+	 * @return the test run session
+	 * @throws CoreException if the import failed
+	 * @throws org.eclipse.core.runtime.OperationCanceledException if the monitor has been cancelled
+	 * @see TestRunDirectoryImporter
+	 */
+	public static TestRunSession readTestRunDirectory(File directory, IProgressMonitor monitor) throws CoreException {
+		return new TestRunDirectoryImporter().read(directory, monitor);
+	}
+
 	public static void importIntoTestRunSession(File swapFile, TestRunSession testRunSession) throws CoreException {
 		try {
-			SAXParserFactory parserFactory= SAXParserFactory.newInstance();
-//			parserFactory.setValidating(true); // TODO: add DTD and debug flag
-			SAXParser parser= parserFactory.newSAXParser();
-			TestRunHandler handler= new TestRunHandler(testRunSession);
-			parser.parse(swapFile, handler);
-		} catch (ParserConfigurationException e) {
+			new TestRunImporter(testRunSession).read(swapFile, null);
+		} catch (XMLStreamException e) {
 			throwImportError(swapFile, e);
-		} catch (SAXException e) {
+		} catch (IOException e) {
 			throwImportError(swapFile, e);
+		}
+	}
+
+	/**
+	 * Maps a swap file written by {@link #swapOutTestRunSession(TestRunSession, TestRoot, File)}
+	 * into the given test run session. The test elements are read on demand.
+	 *
+	 * @param swapFile the swap file
+	 * @param testRunSession the test run session
+	 * @throws CoreException if the file could not be read
+	 * @see MappedSwapFile
+	 */
+	static void swapInTestRunSession(File swapFile, TestRunSession testRunSession) throws CoreException {
+		try {
+			MappedSwapFile.map(swapFile, testRunSession);
 		} catch (IOException e) {
 			throwImportError(swapFile, e);
 		}
 	}
 
 	/**
-	 * Exports the given test run session.
+	 * Writes the given test tree to a swap file. Unlike
+	 * {@link #exportTestRunSession(TestRunSession, File)}, the file is not
+	 * meant to be read by users or other tools.
+	 *
+	 * @param testRunSession the test run session
+	 * @param testRoot the test tree of the session
+	 * @param swapFile the destination
+	 * @throws CoreException if the file could not be written
+	 */
+	static void swapOutTestRunSession(TestRunSession testRunSession, TestRoot testRoot, File swapFile) throws CoreException {
+		OutputStream out= null;
+		try {
+			out= new FileOutputStream(swapFile);
+			BinarySwapFormat.write(testRunSession, testRoot, out);
+		} catch (IOException e) {
+			throwExportError(swapFile, e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e2) {
+					JUnitPlugin.log(e2);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Exports the given test run session. The file is written in gzip format
+	 * if its name ends with <code>.gz</code>.
 	 *
 	 * @param testRunSession the test run session
 	 * @param file the destination
@@ -445,14 +585,10 @@ public final class JUnitModel {
 		FileOutputStream out= null;
 		try {
 			out= new FileOutputStream(file);
-            exportTestRunSession(testRunSession, out);
+			exportTestRunSession(testRunSession, out, file.getName().toLowerCase().endsWith(GZIP_SUFFIX));
 
 		} catch (IOException e) {
 			throwExportError(file, e);
-		} catch (TransformerConfigurationException e) {
-			throwExportError(file, e);
-		} catch (TransformerException e) {
-			throwExportError(file, e);
 		} finally {
 			if (out != null) {
 				try {
@@ -464,28 +600,17 @@ public final class JUnitModel {
 		}
 	}
 
-	public static void exportTestRunSession(TestRunSession testRunSession, OutputStream out)
-			throws TransformerFactoryConfigurationError, TransformerException {
-
-		Transformer transformer= TransformerFactory.newInstance().newTransformer();
-		InputSource inputSource= new InputSource();
-		SAXSource source= new SAXSource(new TestRunSessionSerializer(testRunSession), inputSource);
-		StreamResult result= new StreamResult(out);
-		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8"); //$NON-NLS-1$
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //$NON-NLS-1$
-		/*
-		 * Bug in Xalan: Only indents if proprietary property
-		 * org.apache.xalan.templates.OutputProperties.S_KEY_INDENT_AMOUNT is set.
-		 *
-		 * Bug in Xalan as shipped with J2SE 5.0:
-		 * Does not read the indent-amount property at all >:-(.
-		 */
-		try {
-			transformer.setOutputProperty("{http://xml.apache.org/xalan}indent-amount", "2"); //$NON-NLS-1$ //$NON-NLS-2$
-		} catch (IllegalArgumentException e) {
-			// no indentation today...
-		}
-		transformer.transform(source, result);
+	/**
+	 * Exports the given test run session with a streaming writer.
+	 *
+	 * @param testRunSession the test run session
+	 * @param out the stream, is not closed
+	 * @param compress whether to write the document in gzip format
+	 * @throws IOException if writing failed
+	 * @see TestRunSessionWriter
+	 */
+	public static void exportTestRunSession(TestRunSession testRunSession, OutputStream out, boolean compress) throws IOException {
+		new TestRunSessionWriter(testRunSession).write(out, compress);
 	}
 
 	private static void throwExportError(File file, Exception e) throws CoreException {
@@ -495,7 +620,7 @@ public final class JUnitModel {
 				e));
 	}
 
-	private static void throwImportError(File file, Exception e) throws CoreException {
+	static void throwImportError(File file, Exception e) throws CoreException {
 		throw new CoreException(new org.eclipse.core.runtime.Status(IStatus.ERROR,
 				JUnitPlugin.getPluginId(),
 				Messages.format(ModelMessages.JUnitModel_could_not_read, BasicElementLabels.getPathLabel(file)),
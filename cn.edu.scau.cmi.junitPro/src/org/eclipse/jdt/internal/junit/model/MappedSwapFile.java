@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.eclipse.jdt.internal.junit.model.TestElement.Status;
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * A memory-mapped swap file in the {@link BinarySwapFormat}, from which the
+ * test tree of a swapped-out session is read on demand.
+ * <p>
+ * {@link #map(File, TestRunSession)} only restores the session counters and
+ * the test root. The children of a suite are read from the file when they are
+ * first accessed (see {@link TestSuiteElement#getChild(int)}); until then,
+ * the suite is marked with {@link TestElement#FLAG_CHILDREN_SWAPPED}, and its
+ * child count is computed from the subtree sizes in the file. Test elements
+ * that have not been read yet cannot be found by their id.
+ * </p>
+ */
+final class MappedSwapFile {
+
+	private final TestRunSession fSession;
+	/**
+	 * The mapped file, or <code>null</code> if closed.
+	 */
+	private ByteBuffer fBuffer;
+
+	private final int[] fStringOffsets;
+	private final String[] fStrings;
+
+	private final int fSubtreeSizesPos;
+	private final int fStatesPos;
+	private final int fChildrenStatesPos;
+	private final int fTimesPos;
+	private final int fIdsPos;
+	private final int fNamesPos;
+	private final int fClassNamesPos;
+	private final int fFailuresPos;
+	private final int fFailureOffsetsPos;
+
+	/**
+	 * Indices of the suites whose children have not been read yet.
+	 */
+	private final HashMap/*<TestSuiteElement, Integer>*/ fSwappedSuites= new HashMap();
+
+	/**
+	 * Maps the given swap file and restores the counters and the test root
+	 * of the given session.
+	 *
+	 * @param swapFile the swap file
+	 * @param session the session, gets {@link TestRunSession#reset() reset}
+	 * @throws IOException if the file could not be mapped or is not a swap file
+	 */
+	public static void map(File swapFile, TestRunSession session) throws IOException {
+		ByteBuffer buffer;
+		RandomAccessFile file= new RandomAccessFile(swapFile, "r"); //$NON-NLS-1$
+		try {
+			FileChannel channel= file.getChannel();
+			long size= channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Swap file too large"); //$NON-NLS-1$
+			buffer= channel.map(FileChannel.MapMode.READ_ONLY, 0, size); // stays valid when the channel is closed
+		} finally {
+			file.close();
+		}
+		MappedSwapFile mappedFile= new MappedSwapFile(buffer, session);
+		try {
+			mappedFile.restoreRoot();
+		} catch (RuntimeException e) {
+			throw invalid(e.toString());
+		}
+	}
+
+	private MappedSwapFile(ByteBuffer buffer, TestRunSession session) throws IOException {
+		fSession= session;
+		fBuffer= buffer;
+		int limit= buffer.limit();
+		if (limit < BinarySwapFormat.HEADER_SIZE || buffer.getInt(0) != BinarySwapFormat.MAGIC)
+			throw new IOException("Not a swap file"); //$NON-NLS-1$
+		int version= buffer.getInt(4);
+		if (version < BinarySwapFormat.MIN_VERSION || version > BinarySwapFormat.VERSION)
+			throw new IOException("Unsupported swap file version: " + version); //$NON-NLS-1$
+
+		int stringCount= buffer.getInt(BinarySwapFormat.HEADER_SIZE - 4);
+		if (stringCount < 0 || stringCount > limit / 4)
+			throw invalid("string count"); //$NON-NLS-1$
+		fStringOffsets= new int[stringCount];
+		fStrings= new String[stringCount];
+		int pos= BinarySwapFormat.HEADER_SIZE;
+		for (int i= 0; i < stringCount; i++) {
+			if (pos > limit - 4)
+				throw invalid("string table"); //$NON-NLS-1$
+			fStringOffsets[i]= pos;
+			int length= buffer.getInt(pos);
+			if (length < -1 || length > limit - pos - 4)
+				throw invalid("string table"); //$NON-NLS-1$
+			pos+= 4 + Math.max(length, 0);
+		}
+
+		if (pos > limit - 4)
+			throw invalid("element count"); //$NON-NLS-1$
+		int count= buffer.getInt(pos);
+		pos+= 4;
+		// 5 int columns and 2 byte columns before the failures, one int column after them:
+		if (count < 1 || count > (limit - pos) / (6 * 4 + 2))
+			throw invalid("element count"); //$NON-NLS-1$
+		fSubtreeSizesPos= pos;
+		fStatesPos= fSubtreeSizesPos + 4 * count;
+		fChildrenStatesPos= fStatesPos + count;
+		fTimesPos= fChildrenStatesPos + count;
+		fIdsPos= fTimesPos + 4 * count;
+		fNamesPos= fIdsPos + 4 * count;
+		fClassNamesPos= fNamesPos + 4 * count;
+		fFailuresPos= fClassNamesPos + 4 * count;
+		fFailureOffsetsPos= limit - 4 * count;
+
+		if (getSubtreeSize(0) != count || isTestCase(0))
+			throw invalid("test root"); //$NON-NLS-1$
+	}
+
+	private static IOException invalid(String what) {
+		return new IOException("Invalid swap file: " + what); //$NON-NLS-1$
+	}
+
+	private void restoreRoot() {
+		ByteBuffer buffer= fBuffer;
+		fSession.reset();
+		TestRoot root= fSession.getTestRoot();
+		restore(root, 0);
+		root.setSwapSource(this);
+
+		fSession.fTotalCount= buffer.getInt(8);
+		fSession.fStartedCount= buffer.getInt(12);
+		fSession.fFailureCount= buffer.getInt(16);
+		fSession.fErrorCount= buffer.getInt(20);
+		fSession.fIgnoredCount= buffer.getInt(24);
+	}
+
+	/**
+	 * Reads the children of the given suite, if they have not been read yet.
+	 *
+	 * @param suite the suite
+	 */
+	public synchronized void loadChildren(TestSuiteElement suite) {
+		if (! suite.hasFlag(TestElement.FLAG_CHILDREN_SWAPPED))
+			return;
+		suite.setFlag(TestElement.FLAG_CHILDREN_SWAPPED, false);
+		Integer index= (Integer) fSwappedSuites.remove(suite);
+		if (index == null || fBuffer == null)
+			return;
+		try {
+			loadChildren(suite, index.intValue());
+		} catch (RuntimeException e) { // corrupt file
+			JUnitPlugin.log(e);
+		}
+	}
+
+	/**
+	 * Counts the children of the given suite in the file without reading them.
+	 *
+	 * @param suite the suite
+	 * @return the number of children, or -1 if they have been read already
+	 * 	or the file is invalid
+	 */
+	public synchronized int getChildCount(TestSuiteElement suite) {
+		Integer index= (Integer) fSwappedSuites.get(suite);
+		if (index == null || fBuffer == null)
+			return -1;
+		try {
+			int end= index.intValue() + getSubtreeSize(index.intValue());
+			int count= 0;
+			for (int child= index.intValue() + 1; child < end; child+= getSubtreeSize(child)) {
+				if (getSubtreeSize(child) < 1)
+					return -1; // reported when the children are read
+				count++;
+			}
+			return count;
+		} catch (RuntimeException e) { // corrupt file
+			return -1;
+		}
+	}
+
+	private void loadChildren(TestSuiteElement suite, int index) {
+		int end= index + getSubtreeSize(index);
+		int child= index + 1;
+		while (child < end) {
+			int size= getSubtreeSize(child);
+			if (size < 1 || size > end - child)
+				throw new IllegalStateException("Invalid subtree size of element " + child); //$NON-NLS-1$
+
+			int intId= fBuffer.getInt(fIdsPos + 4 * child);
+			String id= intId >= 0 ? Integer.toString(intId) : getString(-intId - 1);
+			String name= getString(fBuffer.getInt(fNamesPos + 4 * child));
+			TestElement element;
+			if (isTestCase(child)) {
+				int className= fBuffer.getInt(fClassNamesPos + 4 * child);
+				element= fSession.restoreTestCaseElement(suite, id, name, className == -1 ? null : getString(className));
+			} else {
+				element= fSession.restoreTestSuiteElement(suite, id, name, 0);
+			}
+			restore(element, child);
+			child+= size;
+		}
+		suite.restoreChildrenStatus(suite.getChildrenStatus()); // recount
+	}
+
+	/**
+	 * Restores the state of an element, but not its children.
+	 *
+	 * @param element the element
+	 * @param index the index of the element
+	 */
+	private void restore(TestElement element, int index) {
+		ByteBuffer buffer= fBuffer;
+		byte state= buffer.get(fStatesPos + index);
+		byte childrenState= buffer.get(fChildrenStatesPos + index);
+		if ((state & TestElement.STATUS_MASK) >= Status.COUNT || childrenState < BinarySwapFormat.TEST_CASE || childrenState >= Status.COUNT)
+			throw new IllegalStateException("Invalid status of element " + index); //$NON-NLS-1$
+
+		int failureOffset= buffer.getInt(fFailureOffsetsPos + 4 * index);
+		if (failureOffset != -1) {
+			int pos= fFailuresPos + failureOffset;
+			if (failureOffset < 0 || pos >= fFailureOffsetsPos)
+				throw new IllegalStateException("Invalid failure offset of element " + index); //$NON-NLS-1$
+			String trace= readFailureString(pos);
+			pos+= getFailureStringSize(pos);
+			String expected= readFailureString(pos);
+			pos+= getFailureStringSize(pos);
+			String actual= readFailureString(pos);
+			element.restoreFailureData(trace, expected, actual);
+		}
+
+		element.restoreState(state, buffer.getInt(fTimesPos + 4 * index));
+		if (childrenState != BinarySwapFormat.TEST_CASE) {
+			TestSuiteElement suite= (TestSuiteElement) element;
+			suite.restoreChildrenStatus(childrenState == -1 ? null : Status.fromOrdinal(childrenState));
+			if (getSubtreeSize(index) > 1) {
+				fSwappedSuites.put(suite, Integer.valueOf(index));
+				suite.setFlag(TestElement.FLAG_CHILDREN_SWAPPED, true);
+			}
+		}
+	}
+
+	private int getSubtreeSize(int index) {
+		return fBuffer.getInt(fSubtreeSizesPos + 4 * index);
+	}
+
+	private boolean isTestCase(int index) {
+		return fBuffer.get(fChildrenStatesPos + index) == BinarySwapFormat.TEST_CASE;
+	}
+
+	private String getString(int index) {
+		String string= fStrings[index];
+		if (string == null) {
+			string= readString(fStringOffsets[index]);
+			fStrings[index]= string;
+		}
+		return string;
+	}
+
+	private String readString(int pos) {
+		int length= fBuffer.getInt(pos);
+		if (length == -1)
+			return null;
+		if (length < 0)
+			throw new IllegalStateException("Invalid string length: " + length); //$NON-NLS-1$
+		byte[] bytes= new byte[length];
+		ByteBuffer buffer= fBuffer.duplicate();
+		buffer.position(pos + 4);
+		buffer.get(bytes);
+		return toString(bytes);
+	}
+
+	/**
+	 * Reads a failure string, which may be compressed.
+	 *
+	 * @param pos the position of the string
+	 * @return the string
+	 */
+	private String readFailureString(int pos) {
+		int length= fBuffer.getInt(pos);
+		if (length >= -1)
+			return readString(pos);
+
+		int deflatedLength= -(length + 2);
+		int byteLength= fBuffer.getInt(pos + 4);
+		// deflate does not compress by more than 1:1032
+		if (byteLength < 0 || byteLength / 1032 > deflatedLength)
+			throw new IllegalStateException("Invalid string length: " + byteLength); //$NON-NLS-1$
+		byte[] deflated= new byte[deflatedLength];
+		ByteBuffer buffer= fBuffer.duplicate();
+		buffer.position(pos + 8);
+		buffer.get(deflated);
+
+		byte[] bytes= new byte[byteLength];
+		Inflater inflater= new Inflater();
+		try {
+			inflater.setInput(deflated);
+			int count= 0;
+			while (count < byteLength) {
+				int n= inflater.inflate(bytes, count, byteLength - count);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new IllegalStateException("Truncated string"); //$NON-NLS-1$
+				count+= n;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return toString(bytes);
+	}
+
+	private int getFailureStringSize(int pos) {
+		int length= fBuffer.getInt(pos);
+		if (length >= 0)
+			return 4 + length;
+		if (length == -1)
+			return 4;
+		return 8 - (length + 2);
+	}
+
+	private static String toString(byte[] bytes) {
+		try {
+			return new String(bytes, BinarySwapFormat.ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage()); // UTF-8 is always supported
+		}
+	}
+
+	/**
+	 * Releases the mapping. Children that have not been read yet are lost.
+	 * <p>
+	 * The mapping itself is only unmapped when the buffer is garbage
+	 * collected. Until then, the file cannot be deleted on Windows.
+	 * </p>
+	 */
+	public synchronized void close() {
+		fBuffer= null;
+		fSwappedSuites.clear();
+	}
+}
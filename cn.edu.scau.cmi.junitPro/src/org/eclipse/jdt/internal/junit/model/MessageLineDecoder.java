@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Incrementally decodes the UTF-8 encoded message stream of a RemoteTestRunner
+ * into lines. Partial lines and partial multi-byte characters are kept until
+ * the next chunk of bytes arrives. Line delimiters are handled like in
+ * {@link java.io.BufferedReader#readLine()}.
+ */
+class MessageLineDecoder {
+
+	private static final int CHAR_BUFFER_SIZE= 8192;
+
+	private final CharsetDecoder fDecoder;
+	private final CharBuffer fChars= CharBuffer.allocate(CHAR_BUFFER_SIZE);
+	/**
+	 * The start of a line that has not been terminated yet.
+	 */
+	private final StringBuffer fPartialLine= new StringBuffer();
+	/**
+	 * <code>true</code> iff the last character was a '\r', so that a following '\n' is skipped
+	 */
+	private boolean fSkipLF;
+
+	public MessageLineDecoder() {
+		fDecoder= Charset.forName("UTF-8").newDecoder() //$NON-NLS-1$
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Decodes the remaining bytes of <code>in</code> and passes every complete
+	 * line to the client. Bytes of an incomplete character are left in
+	 * <code>in</code>, so the caller has to compact the buffer before reading
+	 * more bytes into it.
+	 *
+	 * @param in the bytes to decode
+	 * @param client the client that receives the decoded lines
+	 */
+	public void decode(ByteBuffer in, RemoteTestRunnerClient client) {
+		CoderResult result;
+		do {
+			result= fDecoder.decode(in, fChars, false);
+			scanLines(client);
+		} while (result.isOverflow());
+	}
+
+	/**
+	 * Signals the end of the stream. A trailing line without delimiter is
+	 * passed to the client.
+	 *
+	 * @param client the client that receives the decoded lines
+	 */
+	public void endOfInput(RemoteTestRunnerClient client) {
+		fDecoder.decode(ByteBuffer.allocate(0), fChars, true);
+		fDecoder.flush(fChars);
+		scanLines(client);
+		if (fPartialLine.length() > 0) {
+			String line= fPartialLine.toString();
+			fPartialLine.setLength(0);
+			client.receiveMessage(line);
+		}
+		fDecoder.reset();
+	}
+
+	private void scanLines(RemoteTestRunnerClient client) {
+		fChars.flip();
+		char[] chars= fChars.array();
+		int end= fChars.limit();
+		int lineStart= 0;
+		for (int i= 0; i < end; i++) {
+			char c= chars[i];
+			if (fSkipLF) {
+				fSkipLF= false;
+				if (c == '\n') {
+					lineStart= i + 1;
+					continue;
+				}
+			}
+			if (c == '\n' || c == '\r') {
+				String line;
+				if (fPartialLine.length() == 0) {
+					line= new String(chars, lineStart, i - lineStart);
+				} else {
+					fPartialLine.append(chars, lineStart, i - lineStart);
+					line= fPartialLine.toString();
+					fPartialLine.setLength(0);
+				}
+				fSkipLF= c == '\r';
+				lineStart= i + 1;
+				client.receiveMessage(line);
+			}
+		}
+		if (lineStart < end)
+			fPartialLine.append(chars, lineStart, end - lineStart);
+		fChars.clear();
+	}
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the message stream of a RemoteTestRunner. The first line is read
+ * byte-wise and passed to the client; if the runner announced the
+ * {@link BinaryMessageIds#VERSION binary protocol} in it, the rest of the
+ * stream is decoded by a {@link BinaryMessageDecoder}, otherwise by a
+ * {@link MessageLineDecoder}.
+ */
+class MessageStreamDecoder {
+
+	private static final int HEADER= 0;
+	private static final int TEXT= 1;
+	private static final int BINARY= 2;
+
+	private static final Charset UTF_8= Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	private int fMode= HEADER;
+	private byte[] fHeader= new byte[64];
+	private int fHeaderLength;
+
+	private MessageLineDecoder fLineDecoder;
+	private BinaryMessageDecoder fBinaryDecoder;
+
+	/**
+	 * Decodes the remaining bytes of <code>in</code>, passes all complete
+	 * messages to the client and flushes the client's events. The bytes of an
+	 * incomplete message are left in <code>in</code>; use
+	 * {@link #compact(ByteBuffer)} before reading more bytes into the buffer.
+	 *
+	 * @param in the bytes to decode
+	 * @param client the client that receives the messages
+	 * @throws ProtocolException if the runner sent an invalid binary frame
+	 */
+	public void decode(ByteBuffer in, RemoteTestRunnerClient client) throws ProtocolException {
+		if (fMode == HEADER && ! readHeader(in, client))
+			return;
+		if (fMode == BINARY)
+			fBinaryDecoder.decode(in, client);
+		else
+			fLineDecoder.decode(in, client);
+		client.flushEvents();
+	}
+
+	/**
+	 * Signals the end of the stream.
+	 *
+	 * @param client the client that receives the messages
+	 */
+	public void endOfInput(RemoteTestRunnerClient client) {
+		if (fMode == HEADER) {
+			if (fHeaderLength > 0)
+				client.receiveMessage(new String(fHeader, 0, fHeaderLength, UTF_8));
+		} else if (fMode == TEXT) {
+			fLineDecoder.endOfInput(client);
+		}
+		// an incomplete binary frame is dropped
+		client.flushEvents();
+	}
+
+	/**
+	 * @param in the bytes to decode
+	 * @param client the client
+	 * @return <code>true</code> iff the first line is complete and the mode has been decided
+	 */
+	private boolean readHeader(ByteBuffer in, RemoteTestRunnerClient client) {
+		while (in.hasRemaining()) {
+			byte b= in.get();
+			if (b == '\n') {
+				int length= fHeaderLength;
+				if (length > 0 && fHeader[length - 1] == '\r')
+					length--;
+				String header= new String(fHeader, 0, length, UTF_8);
+				fHeader= null;
+				client.receiveMessage(header);
+				if (client.isBinaryProtocol()) {
+					fBinaryDecoder= new BinaryMessageDecoder();
+					fMode= BINARY;
+				} else {
+					fLineDecoder= new MessageLineDecoder();
+					fMode= TEXT;
+				}
+				return true;
+			}
+			if (fHeaderLength == fHeader.length) {
+				byte[] header= new byte[2 * fHeader.length];
+				System.arraycopy(fHeader, 0, header, 0, fHeaderLength);
+				fHeader= header;
+			}
+			fHeader[fHeaderLength++]= b;
+		}
+		return false;
+	}
+
+	/**
+	 * Compacts the buffer after {@link #decode(ByteBuffer, RemoteTestRunnerClient)}.
+	 * If the buffer is full with an incomplete message, a larger buffer is
+	 * returned.
+	 *
+	 * @param buffer the buffer
+	 * @return the buffer to read the next bytes into
+	 */
+	public static ByteBuffer compact(ByteBuffer buffer) {
+		buffer.compact();
+		if (buffer.hasRemaining())
+			return buffer;
+		buffer.flip();
+		int capacity= 2 * buffer.capacity();
+		ByteBuffer result= buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		result.put(buffer);
+		return result;
+	}
+}
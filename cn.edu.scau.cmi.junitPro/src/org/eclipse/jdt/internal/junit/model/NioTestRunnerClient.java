@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * A {@link RemoteTestRunnerClient} that does not need a thread of its own.
+ * The connections of all NIO clients are served by the shared
+ * {@link TestRunnerSelector}, which feeds the received messages into the same
+ * message processing state machine as the blocking client.
+ *
+ * @see org.eclipse.jdt.internal.junit.launcher.JUnitLaunchConfigurationConstants#ATTR_NIO_CLIENT
+ */
+public class NioTestRunnerClient extends RemoteTestRunnerClient {
+
+	private static final int READ_BUFFER_SIZE= 8192;
+	/**
+	 * The number of bytes that are read at most per selection, so that a
+	 * runner that sends a lot does not hold up the other connections.
+	 */
+	private static final int MAX_READ_PER_SELECTION= 64 * 1024;
+
+	private ServerSocketChannel fServerChannel;
+	private SocketChannel fChannel;
+	/**
+	 * Messages that have not been sent yet, in write mode, or <code>null</code>.
+	 */
+	private ByteBuffer fWriteBuffer;
+
+	/*
+	 * Only accessed by the selector thread:
+	 */
+	private SelectionKey fKey;
+	private ByteBuffer fReadBuffer;
+	private MessageStreamDecoder fDecoder;
+
+	void startServerConnection(int port) {
+		try {
+			ServerSocketChannel serverChannel= ServerSocketChannel.open();
+			synchronized (this) {
+				fServerChannel= serverChannel;
+			}
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			TestRunnerSelector.getDefault().register(serverChannel, this);
+		} catch (SocketException e) {
+			postTermination();
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+			postTermination();
+		}
+	}
+
+	/**
+	 * Accepts the connection of the RemoteTestRunner. Called by the selector thread.
+	 *
+	 * @param selector the selector to register the connection with
+	 */
+	void handleAccept(Selector selector) {
+		try {
+			ServerSocketChannel serverChannel;
+			synchronized (this) {
+				serverChannel= fServerChannel;
+			}
+			if (serverChannel == null)
+				return;
+			SocketChannel channel= serverChannel.accept();
+			if (channel == null)
+				return;
+			channel.configureBlocking(false);
+			fReadBuffer= ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+			fDecoder= new MessageStreamDecoder();
+			synchronized (this) {
+				fChannel= channel;
+				fServerChannel= null;
+			}
+			// only one RemoteTestRunner connects per session:
+			serverChannel.close();
+			fKey= channel.register(selector, SelectionKey.OP_READ, this);
+			requestBinaryProtocol();
+		} catch (IOException e) {
+			terminate();
+		}
+	}
+
+	/**
+	 * Reads the available bytes, up to {@link #MAX_READ_PER_SELECTION}, and
+	 * processes all complete messages. Called by the selector thread.
+	 */
+	void handleRead() {
+		SocketChannel channel;
+		synchronized (this) {
+			channel= fChannel;
+		}
+		if (channel == null)
+			return;
+		try {
+			int count= 0;
+			int total= 0;
+			while (total < MAX_READ_PER_SELECTION && (count= channel.read(fReadBuffer)) != 0) {
+				if (count < 0)
+					break;
+				total+= count;
+				fReadBuffer.flip();
+				fDecoder.decode(fReadBuffer, this);
+				fReadBuffer= MessageStreamDecoder.compact(fReadBuffer);
+			}
+			if (count < 0) {
+				// the runner VM may have exited without reporting the end of the run
+				fDecoder.endOfInput(this);
+				terminate();
+			}
+		} catch (ProtocolException e) {
+			JUnitPlugin.log(e);
+			terminate();
+		} catch (IOException e) {
+			terminate();
+		}
+	}
+
+	/**
+	 * Shuts down the connection and notifies the listeners that the test run
+	 * has terminated, unless its end has been reported already. Called by the
+	 * selector thread.
+	 */
+	void terminate() {
+		shutDown();
+		notifyTestRunTerminated();
+	}
+
+	/**
+	 * Shuts down the connection and lets the selector thread notify the
+	 * termination, since only that thread may fill in the events.
+	 */
+	private void postTermination() {
+		shutDown();
+		try {
+			TestRunnerSelector.getDefault().terminate(this);
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+			// there is no selector thread that could fill in events
+			notifyTestRunTerminated();
+		}
+	}
+
+	/**
+	 * Queues a message. It is written by the selector thread when the channel
+	 * can take it, so the caller never waits for the RemoteTestRunner.
+	 *
+	 * @param message the message
+	 */
+	void sendMessage(String message) {
+		synchronized (this) {
+			if (fChannel == null)
+				return;
+			byte[] bytes;
+			try {
+				bytes= (message + '\n').getBytes("UTF-8"); //$NON-NLS-1$
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.getMessage()); // UTF-8 is always supported
+			}
+			boolean wasEmpty= fWriteBuffer == null;
+			if (wasEmpty) {
+				fWriteBuffer= ByteBuffer.allocate(Math.max(bytes.length, 256));
+			} else if (fWriteBuffer.remaining() < bytes.length) {
+				ByteBuffer buffer= ByteBuffer.allocate(Math.max(fWriteBuffer.position() + bytes.length, 2 * fWriteBuffer.capacity()));
+				fWriteBuffer.flip();
+				buffer.put(fWriteBuffer);
+				fWriteBuffer= buffer;
+			}
+			fWriteBuffer.put(bytes);
+			if (! wasEmpty)
+				return; // the selector thread has been asked to write already
+		}
+		try {
+			TestRunnerSelector.getDefault().write(this);
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+		}
+	}
+
+	/**
+	 * Starts waiting until the channel is writable. Called by the selector thread.
+	 */
+	void enableWrite() {
+		if (fKey != null && fKey.isValid())
+			fKey.interestOps(fKey.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes as much of the queued messages as the channel takes. Called by
+	 * the selector thread.
+	 */
+	void handleWrite() {
+		try {
+			synchronized (this) {
+				if (fChannel == null || fWriteBuffer == null)
+					return;
+				fWriteBuffer.flip();
+				fChannel.write(fWriteBuffer);
+				if (fWriteBuffer.hasRemaining()) {
+					fWriteBuffer.compact();
+					return;
+				}
+				fWriteBuffer= null;
+			}
+			fKey.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			terminate();
+		}
+	}
+
+	public void stopWaiting() {
+		boolean waiting;
+		synchronized (this) {
+			waiting= fServerChannel != null && fChannel == null;
+		}
+		if (waiting) {
+			// the blocking client gets this from the SocketException in ServerSocket#accept()
+			postTermination();
+		}
+	}
+
+	synchronized void shutDown() {
+		super.shutDown();
+		try {
+			if (fChannel != null) {
+				fChannel.close();
+				fChannel= null;
+			}
+		} catch (IOException e) {
+		}
+		fWriteBuffer= null;
+		try {
+			if (fServerChannel != null) {
+				fServerChannel.close();
+				fServerChannel= null;
+			}
+		} catch (IOException e) {
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return fChannel != null;
+	}
+}
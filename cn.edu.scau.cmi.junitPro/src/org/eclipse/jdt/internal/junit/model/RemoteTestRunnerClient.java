@@ -12,15 +12,15 @@
  *******************************************************************************/
 package org.eclipse.jdt.internal.junit.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 import org.eclipse.core.runtime.ISafeRunnable;
 import org.eclipse.core.runtime.SafeRunner;
@@ -38,6 +38,41 @@ public class RemoteTestRunnerClient {
 			JUnitPlugin.log(exception);
 		}
 	}
+	/**
+	 * Passes batches of buffered events to one listener. A listener that is
+	 * not an {@link ITestRunListener3} gets the single event methods; if one
+	 * of them fails, the remaining events of the batch are still delivered.
+	 */
+	private class EventDispatcher extends ListenerSafeRunnable {
+		private final ITestRunListener2 fListener;
+		private int fCount;
+		private int fNext;
+
+		EventDispatcher(ITestRunListener2 listener) {
+			fListener= listener;
+		}
+
+		void dispatch(int count) {
+			fCount= count;
+			fNext= 0;
+			if (fListener instanceof ITestRunListener3) {
+				SafeRunner.run(this);
+			} else {
+				while (fNext < fCount)
+					SafeRunner.run(this);
+			}
+		}
+
+		public void run() {
+			if (fListener instanceof ITestRunListener3) {
+				((ITestRunListener3) fListener).testRunEvents(fEvents, fCount);
+			} else {
+				while (fNext < fCount)
+					fEvents[fNext++].dispatch(fListener);
+			}
+		}
+	}
+
 	/**
 	 * A simple state machine to process requests from the RemoteTestRunner
 	 */
@@ -103,8 +138,7 @@ public class RemoteTestRunnerClient {
 	        }
 	        if (message.startsWith(MessageIds.TEST_STOPPED)) {
 	            long elapsedTime = Long.parseLong(arg);
-	            notifyTestRunStopped(elapsedTime);
-	            shutDown();
+	            testRunStopped(elapsedTime);
 	            return this;
 	        }
 	        if (message.startsWith(MessageIds.TEST_TREE)) {
@@ -202,9 +236,22 @@ public class RemoteTestRunnerClient {
 	ProcessingState fCurrentState= fDefaultState;
 
 	/**
-	 * An array of listeners that are informed about test events.
+	 * Pass the test events to the listeners, one dispatcher per listener.
 	 */
-	private ITestRunListener2[] fListeners;
+	private EventDispatcher[] fDispatchers;
+
+	/**
+	 * Decoded events that have not been passed to the listeners yet. Only
+	 * accessed by the thread that reads the message stream.
+	 */
+	private final TestRunEvent[] fEvents= createEvents();
+	private int fEventCount;
+	/**
+	 * Whether the end of the test run has been passed to the listeners, i.e.
+	 * that it has ended, has been stopped or has terminated. Only accessed by
+	 * the thread that reads the message stream.
+	 */
+	private boolean fRunFinished;
 
 	/**
 	 * The server socket
@@ -213,11 +260,15 @@ public class RemoteTestRunnerClient {
 	private Socket fSocket;
 	private int fPort= -1;
 	private PrintWriter fWriter;
-	private BufferedReader fBufferedReader;
+	private InputStream fInputStream;
 	/**
 	 * The protocol version
 	 */
 	private String fVersion;
+	/**
+	 * Whether to ask the RemoteTestRunner for the binary protocol
+	 */
+	private volatile boolean fRequestBinaryProtocol;
 	/**
 	 * The failed test that is currently reported from the RemoteTestRunner
 	 */
@@ -233,46 +284,80 @@ public class RemoteTestRunnerClient {
 
 	private boolean fDebug= false;
 
+	private static final int READ_BUFFER_SIZE= 8192;
+	private static final int EVENT_BUFFER_SIZE= 256;
+
 	/**
 	 * Reads the message stream from the RemoteTestRunner
 	 */
 	private class ServerConnection extends Thread {
 		int fServerPort;
+		/**
+		 * A socket that is already connected to the RemoteTestRunner, or <code>null</code>.
+		 */
+		Socket fConnectedSocket;
 
 		public ServerConnection(int port) {
 			super("ServerConnection"); //$NON-NLS-1$
 			fServerPort= port;
 		}
 
+		public ServerConnection(Socket socket) {
+			super("ServerConnection"); //$NON-NLS-1$
+			fServerPort= socket.getLocalPort();
+			fConnectedSocket= socket;
+		}
+
 		public void run() {
 			try {
-				if (fDebug)
-					System.out.println("Creating server socket "+fServerPort); //$NON-NLS-1$
-				fServerSocket= new ServerSocket(fServerPort);
-				fSocket= fServerSocket.accept();
-				try {
-				    fBufferedReader= new BufferedReader(new InputStreamReader(fSocket.getInputStream(), "UTF-8")); //$NON-NLS-1$
-				} catch (UnsupportedEncodingException e) {
-				    fBufferedReader= new BufferedReader(new InputStreamReader(fSocket.getInputStream()));
+				if (fConnectedSocket != null) {
+					fSocket= fConnectedSocket;
+				} else {
+					if (fDebug)
+						System.out.println("Creating server socket "+fServerPort); //$NON-NLS-1$
+					fServerSocket= new ServerSocket(fServerPort);
+					fSocket= fServerSocket.accept();
 				}
+				fInputStream= fSocket.getInputStream();
 				try {
 				    fWriter= new PrintWriter(new OutputStreamWriter(fSocket.getOutputStream(), "UTF-8"), true); //$NON-NLS-1$
 	            } catch (UnsupportedEncodingException e1) {
 	                fWriter= new PrintWriter(new OutputStreamWriter(fSocket.getOutputStream()), true);
 	            }
-				String message;
-				while(fBufferedReader != null && (message= readMessage(fBufferedReader)) != null)
-					receiveMessage(message);
+				requestBinaryProtocol();
+				readMessages();
 			} catch (SocketException e) {
-				notifyTestRunTerminated();
+				// fall through
 			} catch (IOException e) {
+				JUnitPlugin.log(e); // e.g. a ProtocolException
+			} catch (RuntimeException e) {
+				// don't leave the session running if a listener failed
 				JUnitPlugin.log(e);
-				// fall through
 			}
 			shutDown();
+			// does nothing if the run has ended, but the runner VM can also exit without reporting the end
+			notifyTestRunTerminated();
 		}
 	}
 
+	private void readMessages() throws IOException {
+		MessageStreamDecoder decoder= new MessageStreamDecoder();
+		ByteBuffer buffer= ByteBuffer.allocate(READ_BUFFER_SIZE);
+		while (true) {
+			InputStream in= fInputStream;
+			if (in == null)
+				return; // shut down
+			int count= in.read(buffer.array(), buffer.position(), buffer.remaining());
+			if (count == -1)
+				break;
+			buffer.position(buffer.position() + count);
+			buffer.flip();
+			decoder.decode(buffer, this);
+			buffer= MessageStreamDecoder.compact(buffer);
+		}
+		decoder.endOfInput(this);
+	}
+
 	/**
 	 * Start listening to a test run. Start a server connection that
 	 * the RemoteTestRunner can connect to.
@@ -281,8 +366,40 @@ public class RemoteTestRunnerClient {
 	 * @param port port on which the server socket will be opened
 	 */
 	public synchronized void startListening(ITestRunListener2[] listeners, int port) {
-		fListeners= listeners;
+		setListeners(listeners);
 		fPort= port;
+		startServerConnection(port);
+	}
+
+	/**
+	 * Start listening to a test run on a socket that is already connected
+	 * to the RemoteTestRunner, e.g. one that has been accepted by a
+	 * command line tool. The socket is closed when the test run is over.
+	 *
+	 * @param listeners listeners to inform
+	 * @param socket the connected socket
+	 */
+	public synchronized void startListening(ITestRunListener2[] listeners, Socket socket) {
+		setListeners(listeners);
+		fPort= socket.getLocalPort();
+		new ServerConnection(socket).start();
+	}
+
+	private void setListeners(ITestRunListener2[] listeners) {
+		fDispatchers= new EventDispatcher[listeners.length];
+		for (int i= 0; i < listeners.length; i++) {
+			fDispatchers[i]= new EventDispatcher(listeners[i]);
+		}
+	}
+
+	/**
+	 * Opens the server connection on the given port and starts reading
+	 * messages from it. Subclasses can override to use a different transport;
+	 * they must feed the received bytes into a {@link MessageStreamDecoder}.
+	 *
+	 * @param port port on which the server socket will be opened
+	 */
+	void startServerConnection(int port) {
 		ServerConnection connection= new ServerConnection(port);
 		connection.start();
 	}
@@ -292,18 +409,50 @@ public class RemoteTestRunnerClient {
 	 */
 	public synchronized void stopTest() {
 		if (isRunning()) {
-			fWriter.println(MessageIds.TEST_STOP);
-			fWriter.flush();
+			sendMessage(MessageIds.TEST_STOP);
 		}
 	}
 
+	/**
+	 * Sets whether the client asks the RemoteTestRunner to switch to the binary
+	 * protocol after connecting. Default is <code>false</code>.
+	 *
+	 * @param binaryProtocol <code>true</code> to request the binary protocol
+	 * @see org.eclipse.jdt.internal.junit.launcher.JUnitLaunchConfigurationConstants#ATTR_BINARY_PROTOCOL
+	 */
+	public void setRequestBinaryProtocol(boolean binaryProtocol) {
+		fRequestBinaryProtocol= binaryProtocol;
+	}
+
+	/**
+	 * Asks the RemoteTestRunner to switch to the binary protocol if that has
+	 * been {@link #setRequestBinaryProtocol(boolean) enabled}. Runners that
+	 * don't support it ignore the request.
+	 *
+	 * @see BinaryMessageIds
+	 */
+	void requestBinaryProtocol() {
+		if (fRequestBinaryProtocol)
+			sendMessage(BinaryMessageIds.PROTOCOL_REQUEST + BinaryMessageIds.VERSION);
+	}
+
+	/**
+	 * Sends a message to the RemoteTestRunner.
+	 *
+	 * @param message the message, without line delimiter
+	 */
+	void sendMessage(String message) {
+		fWriter.println(message);
+		fWriter.flush();
+	}
+
 	public synchronized void stopWaiting() {
 		if (fServerSocket != null  && ! fServerSocket.isClosed() && fSocket == null) {
 			shutDown(); // will throw a SocketException in Threads that wait in ServerSocket#accept()
 		}
 	}
 
-	private synchronized void shutDown() {
+	synchronized void shutDown() {
 		if (fDebug)
 			System.out.println("shutdown "+fPort); //$NON-NLS-1$
 
@@ -312,9 +461,9 @@ public class RemoteTestRunnerClient {
 			fWriter= null;
 		}
 		try {
-			if (fBufferedReader != null) {
-				fBufferedReader.close();
-				fBufferedReader= null;
+			if (fInputStream != null) {
+				fInputStream.close();
+				fInputStream= null;
 			}
 		} catch(IOException e) {
 		}
@@ -338,11 +487,7 @@ public class RemoteTestRunnerClient {
 		return fSocket != null;
 	}
 
-	private String readMessage(BufferedReader in) throws IOException {
-		return in.readLine();
-	}
-
-	private void receiveMessage(String message) {
+	void receiveMessage(String message) {
 	    fCurrentState= fCurrentState.readMessage(message);
 	}
 
@@ -383,7 +528,7 @@ public class RemoteTestRunnerClient {
 		if (statusCode != ITestRunListener2.STATUS_OK)
 			trace = fFailedRerunTrace.toString();
 		// assumption a rerun trace was sent before
-		notifyTestReran(testId, className, testName, statusCode, trace);
+		notifyTestReran(testId, className, testName, statusCode, trace, fExpectedResult.toString(), fActualResult.toString());
 	}
 
 	private void extractFailure(String arg, int status) {
@@ -413,30 +558,47 @@ public class RemoteTestRunnerClient {
 	private boolean hasTestId() {
 		if (fVersion == null) // TODO fix me
 			return true;
-		return fVersion.equals("v2"); //$NON-NLS-1$
+		return fVersion.equals("v2") || isBinaryProtocol(); //$NON-NLS-1$
 	}
 
-	private void notifyTestReran(final String testId, final String className, final String testName, final int statusCode, final String trace) {
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					listener.testReran(testId,
-								className, testName, statusCode, trace,
-								fExpectedResult.toString(), fActualResult.toString());
-				}
-			});
-		}
+	/**
+	 * @return <code>true</code> iff the RemoteTestRunner switched to the binary protocol
+	 */
+	boolean isBinaryProtocol() {
+		return BinaryMessageIds.VERSION.equals(fVersion);
+	}
+
+	void notifyTestReran(String testId, String className, String testName, int statusCode, String trace, String expected, String actual) {
+		TestRunEvent event= nextEvent(TestRunEvent.TEST_RERAN);
+		event.fTestId= testId;
+		event.fClassName= className;
+		event.fTestName= testName;
+		event.fStatus= statusCode;
+		event.fTrace= trace;
+		event.fExpected= expected;
+		event.fActual= actual;
 	}
 
-	private void notifyTestTreeEntry(final String treeEntry) {
-		for (int i= 0; i < fListeners.length; i++) {
-			ITestRunListener2 listener= fListeners[i];
-			if (!hasTestId())
-				listener.testTreeEntry(fakeTestId(treeEntry));
-			else
-				listener.testTreeEntry(treeEntry);
+	void notifyTestTreeEntry(String testId, String testName, boolean isSuite, int testCount) {
+		// format: testId","testName","isSuite","testcount
+		StringBuffer treeEntry= new StringBuffer(testId.length() + testName.length() + 16);
+		treeEntry.append(testId).append(',');
+		for (int i= 0; i < testName.length(); i++) {
+			char c= testName.charAt(i);
+			if (c == ',' || c == '\\')
+				treeEntry.append('\\');
+			treeEntry.append(c);
 		}
+		treeEntry.append(',').append(isSuite).append(',').append(testCount);
+		notifyTestTreeEntry(treeEntry.toString());
+	}
+
+	private void notifyTestTreeEntry(String treeEntry) {
+		TestRunEvent event= nextEvent(TestRunEvent.TREE_ENTRY);
+		if (!hasTestId())
+			event.fTreeEntry= fakeTestId(treeEntry);
+		else
+			event.fTreeEntry= treeEntry;
 	}
 
 	private String fakeTestId(String treeEntry) {
@@ -446,98 +608,125 @@ public class RemoteTestRunnerClient {
 		return testName+","+treeEntry; //$NON-NLS-1$
 	}
 
-	private void notifyTestRunStopped(final long elapsedTime) {
-		if (JUnitPlugin.isStopped())
-			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					listener.testRunStopped(elapsedTime);
-				}
-			});
-		}
+	/**
+	 * Notifies the listeners that the run has been stopped and shuts down the connection.
+	 *
+	 * @param elapsedTime the elapsed time in milliseconds
+	 */
+	void testRunStopped(long elapsedTime) {
+		notifyTestRunStopped(elapsedTime);
+		shutDown();
 	}
 
-	private void testRunEnded(final long elapsedTime) {
-		if (JUnitPlugin.isStopped())
-			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					listener.testRunEnded(elapsedTime);
-				}
-			});
-		}
+	private void notifyTestRunStopped(long elapsedTime) {
+		fRunFinished= true;
+		nextEvent(TestRunEvent.RUN_STOPPED).fElapsedTime= elapsedTime;
+		flushEvents();
 	}
 
-	private void notifyTestEnded(final String test) {
-		if (JUnitPlugin.isStopped())
-			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					String s[]= extractTestId(test);
-					listener.testEnded(s[0], s[1]);
-				}
-			});
-		}
+	void testRunEnded(long elapsedTime) {
+		fRunFinished= true;
+		nextEvent(TestRunEvent.RUN_ENDED).fElapsedTime= elapsedTime;
+		flushEvents();
 	}
 
-	private void notifyTestStarted(final String test) {
-		if (JUnitPlugin.isStopped())
-			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					String s[]= extractTestId(test);
-					listener.testStarted(s[0], s[1]);
-				}
-			});
-		}
+	private void notifyTestEnded(String test) {
+		String s[]= extractTestId(test);
+		notifyTestEnded(s[0], s[1]);
 	}
 
-	private void notifyTestRunStarted(final int count) {
-		if (JUnitPlugin.isStopped())
-			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					listener.testRunStarted(count);
-				}
-			});
-		}
+	void notifyTestEnded(String testId, String testName) {
+		TestRunEvent event= nextEvent(TestRunEvent.TEST_ENDED);
+		event.fTestId= testId;
+		event.fTestName= testName;
+	}
+
+	private void notifyTestStarted(String test) {
+		String s[]= extractTestId(test);
+		notifyTestStarted(s[0], s[1]);
+	}
+
+	void notifyTestStarted(String testId, String testName) {
+		TestRunEvent event= nextEvent(TestRunEvent.TEST_STARTED);
+		event.fTestId= testId;
+		event.fTestName= testName;
+	}
+
+	private void notifyTestRunStarted(int count) {
+		nextEvent(TestRunEvent.RUN_STARTED).fTestCount= count;
 	}
 
 	private void notifyTestFailed() {
-		if (JUnitPlugin.isStopped())
+		notifyTestFailed(fFailureKind, fFailedTestId, fFailedTest,
+				fFailedTrace.toString(), fExpectedResult.toString(), fActualResult.toString());
+	}
+
+	void notifyTestFailed(int status, String testId, String testName, String trace, String expected, String actual) {
+		TestRunEvent event= nextEvent(TestRunEvent.TEST_FAILED);
+		event.fStatus= status;
+		event.fTestId= testId;
+		event.fTestName= testName;
+		event.fTrace= trace;
+		event.fExpected= expected;
+		event.fActual= actual;
+	}
+
+	/**
+	 * Notifies the listeners that the connection to the RemoteTestRunner has
+	 * been lost, unless the end of the test run has already been reported.
+	 */
+	void notifyTestRunTerminated() {
+		if (fRunFinished)
 			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-			        listener.testFailed(fFailureKind, fFailedTestId,
-			        		fFailedTest, fFailedTrace.toString(), fExpectedResult.toString(), fActualResult.toString());
-				}
-			});
+		fRunFinished= true;
+		nextEvent(TestRunEvent.RUN_TERMINATED);
+		flushEvents();
+	}
+
+	private static TestRunEvent[] createEvents() {
+		TestRunEvent[] events= new TestRunEvent[EVENT_BUFFER_SIZE];
+		for (int i= 0; i < events.length; i++) {
+			events[i]= new TestRunEvent();
 		}
+		return events;
+	}
+
+	/**
+	 * Returns the next free slot of the event buffer. The buffer is flushed
+	 * first if it is full.
+	 *
+	 * @param kind the event kind
+	 * @return the event to fill in
+	 */
+	private TestRunEvent nextEvent(int kind) {
+		if (fEventCount == fEvents.length)
+			flushEvents();
+		TestRunEvent event= fEvents[fEventCount++];
+		event.reset(kind);
+		return event;
 	}
 
-	private void notifyTestRunTerminated() {
-		// fix for 77771 RemoteTestRunnerClient doing work after junit shutdown [JUnit]
-		if (JUnitPlugin.isStopped())
+	/**
+	 * Passes the buffered events to the listeners. Called by the transport
+	 * after each chunk of received data, and for the events that end a test
+	 * run.
+	 */
+	void flushEvents() {
+		int count= fEventCount;
+		if (count == 0)
 			return;
-		for (int i= 0; i < fListeners.length; i++) {
-			final ITestRunListener2 listener= fListeners[i];
-			SafeRunner.run(new ListenerSafeRunnable() {
-				public void run() {
-					listener.testRunTerminated();
-				}
-			});
+		try {
+			// fix for 77771 RemoteTestRunnerClient doing work after junit shutdown [JUnit]
+			if (JUnitPlugin.isStopped())
+				return;
+			for (int i= 0; i < fDispatchers.length; i++) {
+				fDispatchers[i].dispatch(count);
+			}
+		} finally {
+			for (int i= 0; i < count; i++) {
+				fEvents[i].reset(0);
+			}
+			fEventCount= 0;
 		}
 	}
 
@@ -545,8 +734,7 @@ public class RemoteTestRunnerClient {
 		if (isRunning()) {
 			fActualResult.setLength(0);
 			fExpectedResult.setLength(0);
-			fWriter.println(MessageIds.TEST_RERUN+testId+" "+className+" "+testName); //$NON-NLS-1$ //$NON-NLS-2$
-			fWriter.flush();
+			sendMessage(MessageIds.TEST_RERUN+testId+" "+className+" "+testName); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 	}
 }
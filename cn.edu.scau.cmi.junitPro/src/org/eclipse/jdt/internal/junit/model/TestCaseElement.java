@@ -18,13 +18,59 @@ import org.eclipse.core.runtime.Assert;
 
 public class TestCaseElement extends TestElement implements ITestCaseElement {
 
-	private boolean fIgnored;
+	/**
+	 * The shared class name if the test name has been split by the
+	 * {@link TestNamePool}; the test name then only holds the method name.
+	 */
+	private TestNamePool.ClassName fClassName;
 
 	public TestCaseElement(TestSuiteElement parent, String id, String testName) {
 		super(parent, id, testName);
 		Assert.isNotNull(parent);
 	}
 
+	/**
+	 * @param parent the parent
+	 * @param id the test id
+	 * @param methodName the test method name
+	 * @param className the shared class name
+	 * @see TestNamePool#createTestCaseElement(TestSuiteElement, String, String)
+	 */
+	TestCaseElement(TestSuiteElement parent, String id, String methodName, TestNamePool.ClassName className) {
+		this(parent, id, methodName);
+		fClassName= className;
+	}
+
+	public String getTestName() {
+		if (fClassName == null)
+			return super.getTestName();
+		return super.getTestName() + '(' + fClassName.getRawName() + ')';
+	}
+
+	public void setName(String name) {
+		fClassName= null;
+		super.setName(name);
+	}
+
+	public String getClassName() {
+		if (fClassName == null)
+			return super.getClassName();
+		return fClassName.getName();
+	}
+
+	public String getRawClassName() {
+		if (fClassName == null)
+			return super.getRawClassName();
+		return fClassName.getRawName();
+	}
+
+	/**
+	 * @return the shared class name, or <code>null</code> if the test name has not been split
+	 */
+	TestNamePool.ClassName getSharedClassName() {
+		return fClassName;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see org.eclipse.jdt.junit.model.ITestCaseElement#getTestMethodName()
@@ -32,6 +78,8 @@ public class TestCaseElement extends TestElement implements ITestCaseElement {
 	 * @see org.eclipse.jdt.internal.junit.runner.MessageIds#IGNORED_TEST_PREFIX
 	 */
 	public String getTestMethodName() {
+		if (fClassName != null)
+			return super.getTestName();
 		String testName= getTestName();
 		int index= testName.indexOf('(');
 		if (index > 0)
@@ -51,11 +99,11 @@ public class TestCaseElement extends TestElement implements ITestCaseElement {
 	}
 
 	public void setIgnored(boolean ignored) {
-		fIgnored= ignored;
+		setFlag(FLAG_IGNORED, ignored);
 	}
 
 	public boolean isIgnored() {
-		return fIgnored;
+		return hasFlag(FLAG_IGNORED);
 	}
 
 	public String toString() {
@@ -21,50 +21,61 @@ import org.eclipse.core.runtime.Assert;
 
 
 public abstract class TestElement implements ITestElement {
-	public final static class Status {
-		public static final Status RUNNING_ERROR= new Status("RUNNING_ERROR", 5); //$NON-NLS-1$
-		public static final Status RUNNING_FAILURE= new Status("RUNNING_FAILURE", 6); //$NON-NLS-1$
-		public static final Status RUNNING= new Status("RUNNING", 3); //$NON-NLS-1$
-
-		public static final Status ERROR=   new Status("ERROR",   /*1*/ITestRunListener2.STATUS_ERROR); //$NON-NLS-1$
-		public static final Status FAILURE= new Status("FAILURE", /*2*/ITestRunListener2.STATUS_FAILURE); //$NON-NLS-1$
-		public static final Status OK=      new Status("OK",      /*0*/ITestRunListener2.STATUS_OK); //$NON-NLS-1$
-		public static final Status NOT_RUN= new Status("NOT_RUN", 4); //$NON-NLS-1$
+	/**
+	 * The status of a test element. The ordinals of OK, ERROR and FAILURE are
+	 * the {@link ITestRunListener2} STATUS_* codes.
+	 */
+	public static enum Status {
+		OK,
+		ERROR,
+		FAILURE,
+		RUNNING,
+		NOT_RUN,
+		RUNNING_ERROR,
+		RUNNING_FAILURE;
 
 		private static final Status[] OLD_CODE= { OK, ERROR, FAILURE};
+		private static final Status[] VALUES= values();
+
+		/**
+		 * The number of statuses.
+		 */
+		static final int COUNT= VALUES.length;
 
-		private final String fName;
-		private final int fOldCode;
+		private static final int OK_MASK= bit(OK) | bit(RUNNING) | bit(NOT_RUN);
+		private static final int FAILURE_MASK= bit(FAILURE) | bit(RUNNING_FAILURE);
+		private static final int ERROR_MASK= bit(ERROR) | bit(RUNNING_ERROR);
+		private static final int RUNNING_MASK= bit(RUNNING) | bit(RUNNING_FAILURE) | bit(RUNNING_ERROR);
+		private static final int DONE_MASK= bit(OK) | bit(FAILURE) | bit(ERROR);
 
-		private Status(String name, int oldCode) {
-			fName= name;
-			fOldCode= oldCode;
+		private static int bit(Status status) {
+			return 1 << status.ordinal();
 		}
 
-		public int getOldCode() {
-			return fOldCode;
+		private boolean isIn(int mask) {
+			return (mask & (1 << ordinal())) != 0;
 		}
 
-		public String toString() {
-			return fName;
+		public int getOldCode() {
+			return ordinal(); // the old codes have been extended to be the ordinals
 		}
 
 		/* error state predicates */
 
 		public boolean isOK() {
-			return this == OK || this == RUNNING || this == NOT_RUN;
+			return isIn(OK_MASK);
 		}
 
 		public boolean isFailure() {
-			return this == FAILURE || this == RUNNING_FAILURE;
+			return isIn(FAILURE_MASK);
 		}
 
 		public boolean isError() {
-			return this == ERROR || this == RUNNING_ERROR;
+			return isIn(ERROR_MASK);
 		}
 
 		public boolean isErrorOrFailure() {
-			return isError() || isFailure();
+			return isIn(ERROR_MASK | FAILURE_MASK);
 		}
 
 		/* progress state predicates */
@@ -74,11 +85,11 @@ public abstract class TestElement implements ITestElement {
 		}
 
 		public boolean isRunning() {
-			return this == RUNNING || this == RUNNING_FAILURE || this == RUNNING_ERROR;
+			return isIn(RUNNING_MASK);
 		}
 
 		public boolean isDone() {
-			return this == OK || this == FAILURE || this == ERROR;
+			return isIn(DONE_MASK);
 		}
 
 		public static Status combineStatus(Status one, Status two) {
@@ -138,6 +149,14 @@ public abstract class TestElement implements ITestElement {
 			return OLD_CODE[oldStatus];
 		}
 
+		/**
+		 * @param ordinal the ordinal
+		 * @return the status with the given ordinal
+		 */
+		static Status fromOrdinal(int ordinal) {
+			return VALUES[ordinal];
+		}
+
 		public Result convertToResult() {
 			if (isNotRun())
 				return Result.UNDEFINED;
@@ -163,25 +182,69 @@ public abstract class TestElement implements ITestElement {
 
 	}
 
+	/**
+	 * Trace, expected and actual value of a failed test. Most tests pass, so
+	 * this data is kept in a side table of the {@link TestRoot}.
+	 */
+	static final class FailureData {
+		final String fExpected;
+		final String fActual;
+
+		// The trace fields are guarded by the TraceStore of the TestRoot:
+		/**
+		 * The trace, or <code>null</code> if there is none or it is only in the file of the store.
+		 */
+		String fTrace;
+		/**
+		 * The offset of the trace in the file of the store, or -1.
+		 */
+		long fTraceOffset= -1;
+		int fTraceLength;
+
+		FailureData(String expected, String actual) {
+			fExpected= expected;
+			fActual= actual;
+		}
+	}
+
 	private final TestSuiteElement fParent;
 	private final String fId;
 	private String fTestName;
 
-	private Status fStatus;
-	private String fTrace;
-	private String fExpected;
-	private String fActual;
+	static final int STATUS_MASK= 0x07;
+	/**
+	 * Flag for {@link TestCaseElement#isIgnored()}.
+	 */
+	static final int FLAG_IGNORED= 0x08;
+	/**
+	 * Flag that is set iff the {@link TestRoot} has failure data for this element.
+	 */
+	static final int FLAG_FAILURE_DATA= 0x10;
+	/**
+	 * Flag that is set iff the children of a {@link TestSuiteElement} have not
+	 * been read from the {@link MappedSwapFile} yet.
+	 */
+	static final int FLAG_CHILDREN_SWAPPED= 0x20;
+
+	/**
+	 * The {@link Status#ordinal() status ordinal} in the lowest 3 bits, and the FLAG_* bits.
+	 */
+	private byte fState;
+
+	private static final int TIME_NOT_STARTED= -1;
+	private static final int TIME_RUNNING= -2;
 
 	/**
-	 * Running time in seconds. Contents depend on the current {@link #getProgressState()}:
+	 * Running time in milliseconds. Contents depend on the current {@link #getProgressState()}:
 	 * <ul>
-	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#NOT_STARTED}: {@link Double#NaN}</li>
-	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#RUNNING}: negated start time</li>
+	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#NOT_STARTED}: {@link #TIME_NOT_STARTED}</li>
+	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#RUNNING}: {@link #TIME_RUNNING} minus
+	 * the start time relative to the {@link TestRoot#getTimeBase() time base}</li>
 	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#STOPPED}: elapsed time</li>
 	 * <li>{@link org.eclipse.jdt.junit.model.ITestElement.ProgressState#COMPLETED}: elapsed time</li>
 	 * </ul>
 	 */
-	/* default */ double fTime= Double.NaN;
+	private int fTime= TIME_NOT_STARTED;
 
 	/**
 	 * @param parent the parent, can be <code>null</code>
@@ -194,7 +257,7 @@ public abstract class TestElement implements ITestElement {
 		fParent= parent;
 		fId= id;
 		fTestName= testName;
-		fStatus= Status.NOT_RUN;
+		fState= (byte) Status.NOT_RUN.ordinal();
 		if (parent != null)
 			parent.addChild(this);
 	}
@@ -236,7 +299,7 @@ public abstract class TestElement implements ITestElement {
 	public FailureTrace getFailureTrace() {
 		Result testResult= getTestResult(false);
 		if (testResult == Result.ERROR || testResult == Result.FAILURE) {
-			return new FailureTrace(fTrace, fExpected, fActual);
+			return new FailureTrace(getTrace(), getExpected(), getActual());
 		}
 		return null;
 	}
@@ -262,50 +325,126 @@ public abstract class TestElement implements ITestElement {
 
 	public void setStatus(Status status) {
 		if (status == Status.RUNNING) {
-			fTime= - System.currentTimeMillis() / 1000d ;
+			startTime();
 		} else if (status.convertToProgressState() == ProgressState.COMPLETED) {
-			if (fTime < 0) { // assert ! Double.isNaN(fTime)
-				double endTime= System.currentTimeMillis() / 1000.0d;
-				fTime= endTime + fTime;
-			}
+			stopTime();
 		}
 
-		fStatus= status;
+		Status oldStatus= getStatus();
+		fState= (byte) ((fState & ~STATUS_MASK) | status.ordinal());
 		TestSuiteElement parent= getParent();
 		if (parent != null)
-			parent.childChangedStatus(this, status);
+			parent.childChangedStatus(this, oldStatus, getStatus());
 	}
 
 	public void setStatus(Status status, String trace, String expected, String actual) {
-		if (trace != null && fTrace != null) {
+		FailureData failureData= getFailureData();
+		String oldTrace= failureData == null ? null : getRoot().getTrace(failureData);
+		if (trace != null && oldTrace != null) {
 			//don't overwrite first trace if same test run logs multiple errors
-			fTrace= fTrace + trace;
+			setFailureData(new FailureData(failureData.fExpected, failureData.fActual), oldTrace + trace);
+		} else if (trace != null || expected != null || actual != null) {
+			setFailureData(new FailureData(expected, actual), trace);
 		} else {
-			fTrace= trace;
-			fExpected= expected;
-			fActual= actual;
+			setFailureData(null, null);
 		}
 		setStatus(status);
 	}
 
 	public Status getStatus() {
-		return fStatus;
+		return Status.fromOrdinal(fState & STATUS_MASK);
 	}
 
 	public String getTrace() {
-		return fTrace;
+		FailureData failureData= getFailureData();
+		return failureData == null ? null : getRoot().getTrace(failureData);
 	}
 
 	public String getExpected() {
-		return fExpected;
+		FailureData failureData= getFailureData();
+		return failureData == null ? null : failureData.fExpected;
 	}
 
 	public String getActual() {
-		return fActual;
+		FailureData failureData= getFailureData();
+		return failureData == null ? null : failureData.fActual;
 	}
 
 	public boolean isComparisonFailure() {
-		return fExpected != null && fActual != null;
+		FailureData failureData= getFailureData();
+		return failureData != null && failureData.fExpected != null && failureData.fActual != null;
+	}
+
+	/**
+	 * @return the failure data, or <code>null</code> if the element has none
+	 */
+	private FailureData getFailureData() {
+		if ((fState & FLAG_FAILURE_DATA) == 0)
+			return null;
+		return getRoot().getFailureData(this);
+	}
+
+	/**
+	 * @param failureData the failure data, or <code>null</code> to remove it
+	 * @param trace the trace, or <code>null</code>
+	 */
+	private void setFailureData(FailureData failureData, String trace) {
+		if (failureData == null && (fState & FLAG_FAILURE_DATA) == 0)
+			return;
+		getRoot().setFailureData(this, failureData, trace);
+		setFlag(FLAG_FAILURE_DATA, failureData != null);
+	}
+
+	/**
+	 * Sets the failure data without changing the status, e.g. when the
+	 * element is read from a swap file.
+	 *
+	 * @param trace the trace, or <code>null</code>
+	 * @param expected the expected value, or <code>null</code>
+	 * @param actual the actual value, or <code>null</code>
+	 */
+	void restoreFailureData(String trace, String expected, String actual) {
+		setFailureData(new FailureData(expected, actual), trace);
+	}
+
+	/**
+	 * @return the packed status and flags, see {@link #restoreState(byte, int)}
+	 */
+	byte getState() {
+		return fState;
+	}
+
+	/**
+	 * @return the packed time, see {@link #restoreState(byte, int)}
+	 */
+	int getTime() {
+		return fTime;
+	}
+
+	/**
+	 * Sets the status, flags and time without notifying the parent, e.g. when
+	 * the element is read from a swap file. The parent must
+	 * {@link TestSuiteElement#restoreChildrenStatus(Status) recount} its
+	 * children afterwards.
+	 *
+	 * @param state the packed status and flags, as returned by {@link #getState()}
+	 * @param time the packed time, as returned by {@link #getTime()}
+	 */
+	void restoreState(byte state, int time) {
+		int keep= FLAG_FAILURE_DATA | FLAG_CHILDREN_SWAPPED;
+		fState= (byte) ((state & ~keep) | (fState & keep));
+		fTime= time;
+	}
+
+	boolean hasFlag(int flag) {
+		return (fState & flag) != 0;
+	}
+
+	void setFlag(int flag, boolean value) {
+		if (value)
+			fState= (byte) (fState | flag);
+		else
+			fState= (byte) (fState & ~flag);
 	}
 
 	/**
@@ -317,6 +456,14 @@ public abstract class TestElement implements ITestElement {
 		return extractClassName(getTestName());
 	}
 
+	/**
+	 * @return the class name as reported by the test runner
+	 * @see #extractRawClassName(String)
+	 */
+	public String getRawClassName() {
+		return extractRawClassName(getTestName());
+	}
+
 	private static String extractClassName(String testNameString) {
 		testNameString= extractRawClassName(testNameString);
 		testNameString= testNameString.replace('$', '.'); // see bug 178503
@@ -337,15 +484,44 @@ public abstract class TestElement implements ITestElement {
 	}
 
 	public void setElapsedTimeInSeconds(double time) {
-		fTime= time;
+		if (Double.isNaN(time) || time < 0.0d)
+			fTime= TIME_NOT_STARTED;
+		else
+			fTime= (int) Math.min(Math.round(time * 1000), Integer.MAX_VALUE);
 	}
 
 	public double getElapsedTimeInSeconds() {
-		if (Double.isNaN(fTime) || fTime < 0.0d) {
+		if (! hasElapsedTime()) {
 			return Double.NaN;
 		}
 
-		return fTime;
+		return fTime / 1000d;
+	}
+
+	/**
+	 * @return <code>true</code> iff the element has been run and its elapsed time is known
+	 */
+	boolean hasElapsedTime() {
+		return fTime >= 0;
+	}
+
+	/**
+	 * Starts measuring the elapsed time.
+	 */
+	void startTime() {
+		long start= System.currentTimeMillis() - getRoot().getTimeBase();
+		fTime= TIME_RUNNING - (int) Math.min(Math.max(start, 0), Integer.MAX_VALUE + (long) TIME_RUNNING);
+	}
+
+	/**
+	 * Stops measuring the elapsed time, if it is being measured.
+	 */
+	void stopTime() {
+		if (fTime <= TIME_RUNNING) {
+			long start= TIME_RUNNING - fTime;
+			long elapsed= System.currentTimeMillis() - getRoot().getTimeBase() - start;
+			fTime= (int) Math.min(Math.max(elapsed, 0), Integer.MAX_VALUE);
+		}
 	}
 
 	public String toString() {
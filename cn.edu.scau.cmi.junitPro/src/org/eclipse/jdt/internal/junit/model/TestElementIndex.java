@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.util.HashMap;
+
+/**
+ * Map from test id to test element.
+ * <p>
+ * The RemoteTestRunner assigns ids that are small non-negative integers. Those
+ * are kept in an open-addressing table with <code>int</code> keys, so looking
+ * them up needs neither a <code>String</code> hash code nor a map entry per
+ * test. Other ids (e.g. of the unrooted tests suite, or the test names used as
+ * ids by old runners) go into a {@link HashMap}.
+ * </p>
+ */
+class TestElementIndex {
+
+	private static final int INITIAL_CAPACITY= 64;
+	/**
+	 * Longest id that is parsed as <code>int</code>, so that <code>id + 1</code> cannot overflow.
+	 */
+	private static final int MAX_INT_ID_LENGTH= 9;
+
+	/**
+	 * Test id + 1, or 0 for free slots. The length is a power of 2.
+	 */
+	private int[] fKeys= new int[INITIAL_CAPACITY];
+	private TestElement[] fValues= new TestElement[INITIAL_CAPACITY];
+	private int fSize;
+
+	/**
+	 * Elements with ids that are not non-negative integers, or <code>null</code>.
+	 */
+	private HashMap/*<String, TestElement>*/ fOtherIds;
+
+	/**
+	 * @param id the test id
+	 * @return the id as <code>int</code>, or -1 if the id is not the canonical
+	 *         decimal representation of a small non-negative integer
+	 */
+	static int parseId(String id) {
+		int length= id.length();
+		if (length == 0 || length > MAX_INT_ID_LENGTH)
+			return -1;
+		if (length > 1 && id.charAt(0) == '0')
+			return -1; // "01" must not be the same test as "1"
+		int result= 0;
+		for (int i= 0; i < length; i++) {
+			char c= id.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			result= result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	public TestElement get(String id) {
+		int intId= parseId(id);
+		if (intId != -1)
+			return get(intId);
+		if (fOtherIds == null)
+			return null;
+		return (TestElement) fOtherIds.get(id);
+	}
+
+	public TestElement get(int id) {
+		int key= id + 1;
+		int mask= fKeys.length - 1;
+		for (int i= hash(id) & mask; ; i= (i + 1) & mask) {
+			int k= fKeys[i];
+			if (k == key)
+				return fValues[i];
+			if (k == 0)
+				return null;
+		}
+	}
+
+	public void put(String id, TestElement element) {
+		int intId= parseId(id);
+		if (intId != -1) {
+			put(intId, element);
+		} else {
+			if (fOtherIds == null)
+				fOtherIds= new HashMap();
+			fOtherIds.put(id, element);
+		}
+	}
+
+	private void put(int id, TestElement element) {
+		if (4 * (fSize + 1) > 3 * fKeys.length)
+			rehash(2 * fKeys.length);
+		if (insert(fKeys, fValues, id, element))
+			fSize++;
+	}
+
+	/**
+	 * @return the number of elements in this index
+	 */
+	public int size() {
+		return fSize + (fOtherIds == null ? 0 : fOtherIds.size());
+	}
+
+	private void rehash(int capacity) {
+		int[] keys= new int[capacity];
+		TestElement[] values= new TestElement[capacity];
+		for (int i= 0; i < fKeys.length; i++) {
+			if (fKeys[i] != 0)
+				insert(keys, values, fKeys[i] - 1, fValues[i]);
+		}
+		fKeys= keys;
+		fValues= values;
+	}
+
+	/**
+	 * @return <code>true</code> iff the id was not in the table yet
+	 */
+	private static boolean insert(int[] keys, TestElement[] values, int id, TestElement element) {
+		int key= id + 1;
+		int mask= keys.length - 1;
+		for (int i= hash(id) & mask; ; i= (i + 1) & mask) {
+			int k= keys[i];
+			if (k == 0) {
+				keys[i]= key;
+				values[i]= element;
+				return true;
+			}
+			if (k == key) {
+				values[i]= element;
+				return false;
+			}
+		}
+	}
+
+	private static int hash(int id) {
+		int h= id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.util.HashMap;
+
+/**
+ * Shares the names of the test elements of a test run session. Test names of
+ * the form <code>method(class)</code> are split once into an interned method
+ * name and a {@link ClassName} that is shared by all tests of the class and
+ * caches the class name in its raw and in its display form.
+ * <p>
+ * Not thread-safe: only used by the thread that builds the model.
+ * </p>
+ *
+ * @see org.eclipse.jdt.internal.junit.runner.MessageIds#TEST_IDENTIFIER_MESSAGE_FORMAT
+ */
+class TestNamePool {
+
+	/**
+	 * A test class name, shared by all test cases of the class.
+	 */
+	static final class ClassName {
+		private final String fRawName;
+		private final String fName;
+
+		ClassName(String rawName) {
+			fRawName= rawName;
+			String name= rawName.replace('$', '.'); // see bug 178503
+			fName= name.equals(rawName) ? rawName : name;
+		}
+
+		/**
+		 * @return the class name as reported by the test runner
+		 * @see TestElement#extractRawClassName(String)
+		 */
+		public String getRawName() {
+			return fRawName;
+		}
+
+		/**
+		 * @return the class name with '$' replaced by '.'
+		 * @see TestElement#getClassName()
+		 */
+		public String getName() {
+			return fName;
+		}
+	}
+
+	private final HashMap/*<String, ClassName>*/ fClassNames= new HashMap();
+	private final HashMap/*<String, String>*/ fStrings= new HashMap();
+
+	/**
+	 * @param rawName the raw class name
+	 * @return the shared class name
+	 */
+	public ClassName getClassName(String rawName) {
+		ClassName className= (ClassName) fClassNames.get(rawName);
+		if (className == null) {
+			className= new ClassName(rawName);
+			fClassNames.put(rawName, className);
+		}
+		return className;
+	}
+
+	/**
+	 * @param string a string
+	 * @return an equal string that is shared with all previous equal strings passed to this method
+	 */
+	public String intern(String string) {
+		String interned= (String) fStrings.get(string);
+		if (interned == null) {
+			fStrings.put(string, string);
+			return string;
+		}
+		return interned;
+	}
+
+	/**
+	 * Creates a test case element with a shared name.
+	 *
+	 * @param parent the parent
+	 * @param id the test id
+	 * @param testName the test name
+	 * @return the new element
+	 */
+	public TestCaseElement createTestCaseElement(TestSuiteElement parent, String id, String testName) {
+		int index= testName.indexOf('(');
+		int length= testName.length();
+		if (index > 0 && testName.indexOf(')', index + 1) == length - 1) {
+			String methodName= intern(testName.substring(0, index));
+			ClassName className= getClassName(testName.substring(index + 1, length - 1));
+			return new TestCaseElement(parent, id, methodName, className);
+		}
+		return new TestCaseElement(parent, id, intern(testName));
+	}
+
+	/**
+	 * Creates a test case element from a name that has already been split.
+	 *
+	 * @param parent the parent
+	 * @param id the test id
+	 * @param methodName the test method name
+	 * @param rawClassName the raw class name
+	 * @return the new element
+	 */
+	public TestCaseElement createTestCaseElement(TestSuiteElement parent, String id, String methodName, String rawClassName) {
+		return new TestCaseElement(parent, id, intern(methodName), getClassName(rawClassName));
+	}
+}
@@ -10,12 +10,45 @@
  *******************************************************************************/
 package org.eclipse.jdt.internal.junit.model;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.jdt.junit.model.ITestRunSession;
 
 public class TestRoot extends TestSuiteElement {
 
+	/**
+	 * Estimated heap used by a test element, including its names and its entry in the
+	 * index of the session, and by the failure data of an element, including the
+	 * headers but not the characters of its strings.
+	 */
+	private static final int ELEMENT_SIZE= 200;
+	private static final int FAILURE_DATA_SIZE= 160;
+
 	private final ITestRunSession fSession;
 
+	/**
+	 * Start times of running elements are stored relative to this time (in millis).
+	 */
+	private final long fTimeBase= System.currentTimeMillis();
+
+	/**
+	 * Failure data of the elements in this tree.
+	 */
+	private final Map/*<TestElement, FailureData>*/ fFailureData= new ConcurrentHashMap();
+
+	private final TraceStore fTraceStore= new TraceStore();
+	/**
+	 * Number of characters of the expected and actual values in {@link #fFailureData}.
+	 */
+	private final AtomicLong fFailureChars= new AtomicLong();
+
+	/**
+	 * The swap file from which this tree is read, or <code>null</code>.
+	 */
+	private volatile MappedSwapFile fSwapSource;
+
 	public TestRoot(ITestRunSession session) {
 		super(null, "-1", session.getTestRunName(), 1); //$NON-NLS-1$
 		fSession= session;
@@ -28,4 +61,102 @@ public class TestRoot extends TestSuiteElement {
 	public ITestRunSession getTestRunSession() {
 		return fSession;
 	}
+
+	long getTimeBase() {
+		return fTimeBase;
+	}
+
+	FailureData getFailureData(TestElement element) {
+		return (FailureData) fFailureData.get(element);
+	}
+
+	/**
+	 * @param element the element
+	 * @param failureData the new failure data, or <code>null</code> to remove it
+	 * @param trace the trace, or <code>null</code>
+	 */
+	void setFailureData(TestElement element, FailureData failureData, String trace) {
+		FailureData previous;
+		if (failureData == null) {
+			previous= (FailureData) fFailureData.remove(element);
+		} else {
+			fTraceStore.put(failureData, trace);
+			previous= (FailureData) fFailureData.put(element, failureData);
+			fFailureChars.addAndGet(getLength(failureData));
+		}
+		if (previous != null) {
+			fTraceStore.remove(previous);
+			fFailureChars.addAndGet(-getLength(previous));
+		}
+	}
+
+	private static int getLength(FailureData failureData) {
+		int length= 0;
+		if (failureData.fExpected != null)
+			length+= failureData.fExpected.length();
+		if (failureData.fActual != null)
+			length+= failureData.fActual.length();
+		return length;
+	}
+
+	String getTrace(FailureData failureData) {
+		return fTraceStore.get(failureData);
+	}
+
+	/**
+	 * Estimates the heap used by this tree.
+	 *
+	 * @param elementCount the number of test elements in memory
+	 * @return the estimated size in bytes
+	 */
+	long getEstimatedMemory(int elementCount) {
+		return (long) elementCount * ELEMENT_SIZE
+				+ (long) fFailureData.size() * FAILURE_DATA_SIZE
+				+ 2 * (fFailureChars.get() + fTraceStore.getCharsInMemory());
+	}
+
+	/**
+	 * @return the swap file from which this tree is read, or <code>null</code>
+	 */
+	MappedSwapFile getSwapSource() {
+		return fSwapSource;
+	}
+
+	void setSwapSource(MappedSwapFile swapSource) {
+		fSwapSource= swapSource;
+	}
+
+	/**
+	 * Reads the children of the given suite from the swap file.
+	 *
+	 * @param suite a suite with {@link TestElement#FLAG_CHILDREN_SWAPPED}
+	 */
+	void loadChildren(TestSuiteElement suite) {
+		MappedSwapFile swapSource= fSwapSource;
+		if (swapSource != null)
+			swapSource.loadChildren(suite);
+		else
+			suite.setFlag(FLAG_CHILDREN_SWAPPED, false);
+	}
+
+	/**
+	 * @param suite a suite with {@link TestElement#FLAG_CHILDREN_SWAPPED}
+	 * @return the number of children of the suite in the swap file, or -1
+	 * 	if they have been read already
+	 */
+	int getSwappedChildCount(TestSuiteElement suite) {
+		MappedSwapFile swapSource= fSwapSource;
+		return swapSource != null ? swapSource.getChildCount(suite) : -1;
+	}
+
+	/**
+	 * Releases the resources of this tree. Traces and children that are not
+	 * in memory any more are lost.
+	 */
+	void dispose() {
+		fTraceStore.close();
+		MappedSwapFile swapSource= fSwapSource;
+		if (swapSource != null)
+			swapSource.close();
+	}
 }
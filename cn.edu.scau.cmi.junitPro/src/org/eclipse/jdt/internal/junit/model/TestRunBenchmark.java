@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.xml.sax.InputSource;
+
+import org.eclipse.jdt.internal.junit.runner.MessageIds;
+
+/**
+ * Measures how fast test runs are received, by replaying recorded message
+ * streams of the RemoteTestRunner through a {@link TestRunEngine}, and how
+ * fast they are exported.
+ * <p>
+ * The streams are either read from a file, e.g. recorded from the socket of
+ * a real test run, or generated for a synthetic test run. Exports are written
+ * by the {@link TestRunSessionWriter} and, for comparison, by an identity
+ * transformer from the events of a {@link TestRunSessionSerializer}, as the
+ * JUnit view did before. Not used by the plug-in; see the
+ * <code>-benchmark</code> mode of <code>cn.edu.scau.samson.Main</code>.
+ * </p>
+ */
+public final class TestRunBenchmark {
+
+	private static final String ENCODING= "UTF-8"; //$NON-NLS-1$
+	private static final int TESTS_PER_CLASS= 100;
+
+	/**
+	 * The number of times a measurement is repeated. The fastest time is reported.
+	 */
+	public static final int REPETITIONS= 5;
+
+	/**
+	 * Discards the exported documents and counts their bytes.
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		long fCount;
+
+		public void write(int b) {
+			fCount++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			fCount+= len;
+		}
+	}
+
+	private TestRunBenchmark() {
+	}
+
+	/**
+	 * Creates the message stream of a synthetic test run: the test tree of
+	 * <code>testCount</code> tests in classes of 100 tests, and optionally
+	 * the start and end of each test, where every 10th test fails with a
+	 * trace. Every 7th test name contains an escaped ','.
+	 *
+	 * @param testCount the number of tests
+	 * @param withResults <code>false</code> to only announce the test tree
+	 * @return the stream in the version 2 format
+	 */
+	public static byte[] createTestRunStream(int testCount, boolean withResults) {
+		StringBuffer stream= new StringBuffer(testCount * (withResults ? 200 : 60));
+		int classCount= (testCount + TESTS_PER_CLASS - 1) / TESTS_PER_CLASS;
+		appendMessage(stream, MessageIds.TEST_RUN_START, testCount + " v2"); //$NON-NLS-1$
+		appendMessage(stream, MessageIds.TEST_TREE, "1,AllTests,true," + classCount); //$NON-NLS-1$
+		int id= 2;
+		for (int c= 0; c < classCount; c++) {
+			int classTests= Math.min(TESTS_PER_CLASS, testCount - c * TESTS_PER_CLASS);
+			appendMessage(stream, MessageIds.TEST_TREE, id++ + "," + getClassName(c) + ",true," + classTests); //$NON-NLS-1$ //$NON-NLS-2$
+			for (int t= 0; t < classTests; t++)
+				appendMessage(stream, MessageIds.TEST_TREE, id++ + "," + escape(getTestName(c, t)) + ",false,1"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (withResults) {
+			id= 2;
+			for (int c= 0; c < classCount; c++) {
+				id++;
+				int classTests= Math.min(TESTS_PER_CLASS, testCount - c * TESTS_PER_CLASS);
+				for (int t= 0; t < classTests; t++) {
+					String test= id++ + "," + getTestName(c, t); //$NON-NLS-1$
+					appendMessage(stream, MessageIds.TEST_START, test);
+					if (t % 10 == 9) {
+						appendMessage(stream, MessageIds.TEST_FAILED, test);
+						stream.append(MessageIds.TRACE_START).append('\n');
+						stream.append("junit.framework.AssertionFailedError: expected:<").append(t).append("> but was:<0>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+						stream.append("\tat ").append(getClassName(c)).append(".test").append(t).append("(Test").append(c).append(".java:").append(t + 10).append(")\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+						stream.append(MessageIds.TRACE_END).append('\n');
+					}
+					appendMessage(stream, MessageIds.TEST_END, test);
+				}
+			}
+		}
+		appendMessage(stream, MessageIds.TEST_RUN_END, "0"); //$NON-NLS-1$
+		try {
+			return stream.toString().getBytes(ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage()); // UTF-8 is always supported
+		}
+	}
+
+	private static String getClassName(int c) {
+		return "org.example.p" + c / 10 + ".Test" + c; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static String getTestName(int c, int t) {
+		if (t % 7 == 6)
+			return "test" + t + "[" + c + ", " + t + "](" + getClassName(c) + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		return "test" + t + "(" + getClassName(c) + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static String escape(String testName) {
+		StringBuffer escaped= new StringBuffer(testName.length() + 2);
+		for (int i= 0; i < testName.length(); i++) {
+			char c= testName.charAt(i);
+			if (c == ',' || c == '\\')
+				escaped.append('\\');
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	private static void appendMessage(StringBuffer stream, String messageId, String arg) {
+		stream.append(messageId).append(arg).append('\n');
+	}
+
+	/**
+	 * @param file a recorded message stream
+	 * @return the content of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public static byte[] readTestRunStream(File file) throws IOException {
+		InputStream in= new FileInputStream(file);
+		try {
+			ByteArrayOutputStream stream= new ByteArrayOutputStream((int) file.length());
+			byte[] buffer= new byte[8192];
+			int count;
+			while ((count= in.read(buffer)) != -1)
+				stream.write(buffer, 0, count);
+			return stream.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Replays a message stream through a local socket into a new test run engine.
+	 *
+	 * @param stream the message stream
+	 * @param elapsedTime receives the time in nanoseconds from the connection
+	 * 	until the test run was over, at index 0
+	 * @return the engine, which has to be disposed
+	 * @throws IOException if the stream could not be replayed
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public static TestRunEngine replay(final byte[] stream, long[] elapsedTime) throws IOException, InterruptedException {
+		ServerSocket serverSocket= new ServerSocket(0, 1, InetAddress.getByName(null));
+		final int port= serverSocket.getLocalPort();
+		final IOException[] error= new IOException[1];
+		Thread runner= new Thread("Test runner replay") { //$NON-NLS-1$
+			public void run() {
+				try {
+					Socket socket= new Socket(InetAddress.getByName(null), port);
+					try {
+						OutputStream out= socket.getOutputStream();
+						out.write(stream);
+						out.flush();
+						socket.shutdownOutput();
+						// keep the socket open until the engine has read everything and closed it
+						while (socket.getInputStream().read() != -1) {
+							// discard
+						}
+					} finally {
+						socket.close();
+					}
+				} catch (IOException e) {
+					error[0]= e;
+				}
+			}
+		};
+		runner.setDaemon(true);
+		runner.start();
+
+		TestRunEngine engine= new TestRunEngine("benchmark"); //$NON-NLS-1$
+		boolean completed= false;
+		try {
+			Socket socket= serverSocket.accept();
+			long start= System.nanoTime();
+			engine.connect(socket);
+			engine.awaitCompletion(0);
+			elapsedTime[0]= System.nanoTime() - start;
+			runner.join();
+			if (error[0] != null)
+				throw error[0];
+			completed= true;
+			return engine;
+		} finally {
+			serverSocket.close();
+			if (! completed)
+				engine.dispose();
+		}
+	}
+
+	/**
+	 * Measures how long it takes to receive a message stream and build the
+	 * test run session from it.
+	 *
+	 * @param stream the message stream
+	 * @return the fastest time in nanoseconds of {@link #REPETITIONS} runs
+	 * @throws IOException if the stream could not be replayed
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public static long measureReceive(byte[] stream) throws IOException, InterruptedException {
+		long fastest= Long.MAX_VALUE;
+		long[] elapsedTime= new long[1];
+		for (int i= 0; i < REPETITIONS; i++) {
+			replay(stream, elapsedTime).dispose();
+			fastest= Math.min(fastest, elapsedTime[0]);
+		}
+		return fastest;
+	}
+
+	/**
+	 * Measures how long it takes to export a test run session with the
+	 * {@link TestRunSessionWriter}, uncompressed and in gzip format, and
+	 * with an identity transformer.
+	 *
+	 * @param testRunSession the test run session
+	 * @param sizes receives the sizes in bytes of the three documents
+	 * @return the fastest times in nanoseconds of {@link #REPETITIONS} runs
+	 * 	of the three exports
+	 * @throws IOException if writing failed
+	 * @throws TransformerException if the transformer failed
+	 */
+	public static long[] measureExport(TestRunSession testRunSession, long[] sizes) throws IOException, TransformerException {
+		long[] fastest= { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int i= 0; i < REPETITIONS; i++) {
+			for (int exporter= 0; exporter < fastest.length; exporter++) {
+				CountingOutputStream out= new CountingOutputStream();
+				long start= System.nanoTime();
+				if (exporter == 2)
+					transform(testRunSession, out);
+				else
+					new TestRunSessionWriter(testRunSession).write(out, exporter == 1);
+				fastest[exporter]= Math.min(fastest[exporter], System.nanoTime() - start);
+				sizes[exporter]= out.fCount;
+			}
+		}
+		return fastest;
+	}
+
+	private static void transform(TestRunSession testRunSession, OutputStream out) throws TransformerException {
+		Transformer transformer= TransformerFactory.newInstance().newTransformer();
+		SAXSource source= new SAXSource(new TestRunSessionSerializer(testRunSession), new InputSource());
+		transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8"); //$NON-NLS-1$
+		transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //$NON-NLS-1$
+		try {
+			transformer.setOutputProperty("{http://xml.apache.org/xalan}indent-amount", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (IllegalArgumentException e) {
+			// no indentation
+		}
+		transformer.transform(source, new StreamResult(out));
+	}
+}
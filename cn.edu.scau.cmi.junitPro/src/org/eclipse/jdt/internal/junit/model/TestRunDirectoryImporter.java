@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import org.eclipse.jdt.internal.junit.BasicElementLabels;
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * Imports a directory of JUnit XML reports, e.g. the <code>TEST-*.xml</code>
+ * files written by Ant's <code>junit</code> task, into one test run session.
+ * <p>
+ * The files are read concurrently, each into a test run session of its own
+ * (see {@link TestRunImporter}). The test trees are then copied in the order
+ * of the file names under the test root of the resulting session, and the
+ * counters of the sessions are summed up. Files that cannot be read are
+ * logged and skipped.
+ * </p>
+ */
+final class TestRunDirectoryImporter {
+
+	private static final String REPORT_PREFIX= "TEST-"; //$NON-NLS-1$
+	private static final String XML_SUFFIX= ".xml"; //$NON-NLS-1$
+	private static final String COMPRESSED_XML_SUFFIX= ".xml.gz"; //$NON-NLS-1$
+
+	/**
+	 * Bytes per unit of work.
+	 */
+	private static final int PROGRESS_UNIT= 1024;
+
+	/**
+	 * A progress monitor for the reader threads, which only forwards cancellation.
+	 */
+	private static final class CancelMonitor extends NullProgressMonitor {
+		private volatile boolean fCanceled;
+
+		public boolean isCanceled() {
+			return fCanceled;
+		}
+
+		public void setCanceled(boolean canceled) {
+			fCanceled= canceled;
+		}
+	}
+
+	private final CancelMonitor fCancelMonitor= new CancelMonitor();
+	private final ThreadLocal/*<XMLInputFactory>*/ fInputFactories= new ThreadLocal() {
+		protected Object initialValue() {
+			return TestRunImporter.createInputFactory();
+		}
+	};
+
+	private TestRunSession fTestRunSession;
+	private int fId;
+
+	/**
+	 * Reads the reports in the given directory. If the directory contains
+	 * <code>TEST-*.xml</code> files, only these are read, otherwise all
+	 * <code>*.xml</code> files. Gzip compressed <code>*.xml.gz</code> files
+	 * are read as well.
+	 *
+	 * @param directory the directory
+	 * @param monitor the progress monitor, or <code>null</code>
+	 * @return the test run session, named after the directory
+	 * @throws CoreException if no file could be read
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public TestRunSession read(File directory, IProgressMonitor monitor) throws CoreException {
+		if (monitor == null)
+			monitor= new NullProgressMonitor();
+		File[] files= getReportFiles(directory);
+		long totalLength= 0;
+		for (int i= 0; i < files.length; i++)
+			totalLength+= files[i].length();
+		monitor.beginTask(BasicElementLabels.getPathLabel(directory), (int) Math.min(totalLength / PROGRESS_UNIT + files.length, Integer.MAX_VALUE));
+
+		fTestRunSession= new TestRunSession(directory.getName(), null);
+		int threadCount= Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), files.length));
+		ExecutorService executor= Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread= new Thread(r, "JUnit directory import"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List/*<Future<TestRunSession>>*/ futures= new ArrayList(files.length);
+		int merged= 0;
+		boolean completed= false;
+		try {
+			for (int i= 0; i < files.length; i++) {
+				final File file= files[i];
+				futures.add(executor.submit(new Callable() {
+					public Object call() throws Exception {
+						return readFile(file);
+					}
+				}));
+			}
+
+			CoreException firstError= null;
+			int imported= 0;
+			for (int i= 0; i < files.length; i++) {
+				monitor.subTask(BasicElementLabels.getPathLabel(files[i]));
+				TestRunSession fileSession= null;
+				try {
+					fileSession= (TestRunSession) get((Future) futures.get(i), monitor);
+				} catch (CoreException e) {
+					JUnitPlugin.log(e);
+					if (firstError == null)
+						firstError= e;
+				}
+				merged++;
+				if (fileSession != null) {
+					merge(fileSession);
+					fileSession.getTestRoot().dispose();
+					imported++;
+				}
+				monitor.worked((int) (files[i].length() / PROGRESS_UNIT) + 1);
+			}
+			if (imported == 0 && firstError != null)
+				throw firstError;
+
+			fTestRunSession.getTestRoot().restoreCumulatedStatus();
+			completed= true;
+			return fTestRunSession;
+		} finally {
+			fCancelMonitor.setCanceled(true); // stops the pending reads
+			executor.shutdownNow();
+			if (! completed) {
+				fTestRunSession.getTestRoot().dispose();
+				awaitTermination(executor); // a running read can still complete
+				for (int i= merged; i < futures.size(); i++)
+					dispose((Future) futures.get(i));
+			}
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Reads one file. Called in the reader threads.
+	 *
+	 * @param file the file
+	 * @return the test run session of the file
+	 * @throws CoreException if the file could not be read
+	 */
+	private TestRunSession readFile(File file) throws CoreException {
+		TestRunImporter importer= new TestRunImporter((XMLInputFactory) fInputFactories.get());
+		try {
+			return importer.read(file, fCancelMonitor);
+		} catch (XMLStreamException e) {
+			JUnitModel.throwImportError(file, e);
+		} catch (IOException e) {
+			JUnitModel.throwImportError(file, e);
+		}
+		return null; // does not happen
+	}
+
+	/**
+	 * Waits until the reads that are still running have stopped. They have been
+	 * cancelled, so this does not take long.
+	 *
+	 * @param executor the executor, which has been shut down
+	 */
+	private static void awaitTermination(ExecutorService executor) {
+		boolean interrupted= false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(100, TimeUnit.MILLISECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted= true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Disposes the session of a completed read that has not been merged.
+	 *
+	 * @param future the future
+	 */
+	private static void dispose(Future future) {
+		if (! future.isDone() || future.isCancelled())
+			return;
+		try {
+			((TestRunSession) future.get()).getTestRoot().dispose();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// not read
+		}
+	}
+
+	private static File[] getReportFiles(File directory) throws CoreException {
+		File[] files= directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				String name= file.getName().toLowerCase();
+				return (name.endsWith(XML_SUFFIX) || name.endsWith(COMPRESSED_XML_SUFFIX)) && file.isFile();
+			}
+		});
+		if (files == null)
+			JUnitModel.throwImportError(directory, new IOException("Not a directory")); //$NON-NLS-1$
+		if (files.length == 0)
+			JUnitModel.throwImportError(directory, new IOException("No JUnit XML reports found")); //$NON-NLS-1$
+
+		List/*<File>*/ reports= new ArrayList();
+		for (int i= 0; i < files.length; i++) {
+			if (files[i].getName().startsWith(REPORT_PREFIX))
+				reports.add(files[i]);
+		}
+		if (! reports.isEmpty())
+			files= (File[]) reports.toArray(new File[reports.size()]);
+
+		Arrays.sort(files, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				return ((File) o1).getName().compareTo(((File) o2).getName());
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Waits for the result of a reader thread.
+	 *
+	 * @param future the future
+	 * @param monitor the progress monitor
+	 * @return the result
+	 * @throws CoreException if the file could not be read
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	private Object get(Future future, IProgressMonitor monitor) throws CoreException {
+		try {
+			while (true) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				try {
+					return future.get(100, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					// check for cancellation
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			Throwable cause= e.getCause();
+			if (cause instanceof CoreException)
+				throw (CoreException) cause;
+			if (cause instanceof OperationCanceledException)
+				throw (OperationCanceledException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw (RuntimeException) cause;
+		}
+	}
+
+	/**
+	 * Copies the test tree of a session under the test root and adds up the counters.
+	 *
+	 * @param fileSession the session of a file
+	 */
+	private void merge(TestRunSession fileSession) {
+		TestRoot root= fTestRunSession.getTestRoot();
+		TestRoot fileRoot= fileSession.getTestRoot();
+		for (int i= 0, count= fileRoot.getChildCount(); i < count; i++)
+			copy(fileRoot.getChild(i), root);
+
+		fTestRunSession.fTotalCount+= fileSession.fTotalCount;
+		fTestRunSession.fStartedCount+= fileSession.fStartedCount;
+		fTestRunSession.fFailureCount+= fileSession.fFailureCount;
+		fTestRunSession.fErrorCount+= fileSession.fErrorCount;
+		fTestRunSession.fIgnoredCount+= fileSession.fIgnoredCount;
+	}
+
+	private void copy(TestElement element, TestSuiteElement parent) {
+		String id= Integer.toString(fId++);
+		TestElement copy;
+		if (element instanceof TestSuiteElement) {
+			TestSuiteElement suite= (TestSuiteElement) element;
+			int childCount= suite.getChildCount();
+			TestSuiteElement suiteCopy= fTestRunSession.restoreTestSuiteElement(parent, id, suite.getTestName(), childCount);
+			for (int i= 0; i < childCount; i++)
+				copy(suite.getChild(i), suiteCopy);
+			suiteCopy.restoreChildrenStatus(suite.getChildrenStatus());
+			copy= suiteCopy;
+		} else {
+			TestCaseElement testCase= (TestCaseElement) element;
+			TestNamePool.ClassName className= testCase.getSharedClassName();
+			if (className == null)
+				copy= fTestRunSession.restoreTestCaseElement(parent, id, testCase.getTestName(), null);
+			else
+				copy= fTestRunSession.restoreTestCaseElement(parent, id, testCase.getTestMethodName(), className.getRawName());
+		}
+		if (element.hasFlag(TestElement.FLAG_FAILURE_DATA))
+			copy.restoreFailureData(element.getTrace(), element.getExpected(), element.getActual());
+		copy.restoreState(element.getState(), element.getTime());
+	}
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.junit.model.ITestElement.Result;
+
+import org.eclipse.core.runtime.Assert;
+
+import org.eclipse.jdt.internal.junit.model.TestElement.Status;
+
+/**
+ * Receives a test run from a RemoteTestRunner and builds its test run session
+ * without the workbench, e.g. in a command line tool on a build machine.
+ * <p>
+ * The engine neither registers the session with the {@link JUnitModel} nor
+ * swaps it to disk, and it does not depend on a running JUnit plug-in.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ * TestRunEngine engine= new TestRunEngine("nightly");
+ * engine.listen(port);
+ * // launch the test runner with -port &lt;port&gt;
+ * if (engine.awaitCompletion(timeout))
+ *     engine.writeReport(new File("report.xml.gz"));
+ * engine.dispose();
+ * </pre>
+ * </p>
+ */
+public final class TestRunEngine {
+
+	private static final String GZIP_SUFFIX= ".gz"; //$NON-NLS-1$
+
+	/**
+	 * Releases {@link TestRunEngine#awaitCompletion(long)} when the test run is over.
+	 */
+	private static final class CompletionListener implements ITestSessionListener {
+		private final CountDownLatch fCompleted= new CountDownLatch(1);
+
+		public void sessionStarted() {
+		}
+
+		public void sessionEnded(long elapsedTime) {
+			fCompleted.countDown();
+		}
+
+		public void sessionStopped(long elapsedTime) {
+			fCompleted.countDown();
+		}
+
+		public void sessionTerminated() {
+			fCompleted.countDown();
+		}
+
+		public void testAdded(TestElement testElement) {
+		}
+
+		public void runningBegins() {
+		}
+
+		public void testStarted(TestCaseElement testCaseElement) {
+		}
+
+		public void testEnded(TestCaseElement testCaseElement) {
+		}
+
+		public void testFailed(TestElement testElement, Status status, String trace, String expected, String actual) {
+		}
+
+		public void testReran(TestCaseElement testCaseElement, Status status, String trace, String expectedResult, String actualResult) {
+		}
+
+		public boolean acceptsSwapToDisk() {
+			return false;
+		}
+	}
+
+	private final TestRunSession fTestRunSession;
+	private final CompletionListener fCompletionListener= new CompletionListener();
+	private RemoteTestRunnerClient fTestRunnerClient;
+
+	/**
+	 * @param testRunName the name of the test run
+	 */
+	public TestRunEngine(String testRunName) {
+		fTestRunSession= new TestRunSession(testRunName, null);
+		fTestRunSession.addTestSessionListener(fCompletionListener);
+	}
+
+	/**
+	 * Opens a server socket on the given port and waits in the background
+	 * for the RemoteTestRunner to connect.
+	 *
+	 * @param port the port, see the <code>-port</code> argument of the RemoteTestRunner
+	 */
+	public synchronized void listen(int port) {
+		Assert.isTrue(fTestRunnerClient == null, "already started"); //$NON-NLS-1$
+		fTestRunnerClient= new RemoteTestRunnerClient();
+		fTestRunSession.startListening(fTestRunnerClient, port);
+	}
+
+	/**
+	 * Reads the test run from a socket that is already connected to the RemoteTestRunner.
+	 *
+	 * @param socket the socket, is closed when the test run is over
+	 */
+	public synchronized void connect(Socket socket) {
+		Assert.isTrue(fTestRunnerClient == null, "already started"); //$NON-NLS-1$
+		fTestRunnerClient= new RemoteTestRunnerClient();
+		fTestRunSession.startListening(fTestRunnerClient, socket);
+	}
+
+	/**
+	 * Waits until the test run has ended, has been stopped or the
+	 * RemoteTestRunner has terminated.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, or 0 to wait forever
+	 * @return <code>true</code> if the test run is over, <code>false</code> on timeout
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public boolean awaitCompletion(long timeout) throws InterruptedException {
+		if (timeout <= 0) {
+			fCompletionListener.fCompleted.await();
+			return true;
+		}
+		return fCompletionListener.fCompleted.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the test run session that is built from the test run
+	 */
+	public TestRunSession getTestRunSession() {
+		return fTestRunSession;
+	}
+
+	/**
+	 * @return the result of the test run
+	 */
+	public Result getTestResult() {
+		return fTestRunSession.getTestResult(true);
+	}
+
+	/**
+	 * Writes the test run in the XML format of the JUnit view. The file is
+	 * compressed if its name ends with <code>.gz</code>.
+	 *
+	 * @param file the file
+	 * @throws IOException if writing failed
+	 */
+	public void writeReport(File file) throws IOException {
+		OutputStream out= new FileOutputStream(file);
+		try {
+			writeReport(out, file.getName().toLowerCase().endsWith(GZIP_SUFFIX));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the test run in the XML format of the JUnit view.
+	 *
+	 * @param out the stream, is not closed
+	 * @param compress whether to write the document in gzip format
+	 * @throws IOException if writing failed
+	 */
+	public void writeReport(OutputStream out, boolean compress) throws IOException {
+		new TestRunSessionWriter(fTestRunSession).write(out, compress);
+	}
+
+	/**
+	 * Asks the RemoteTestRunner to stop the test run.
+	 */
+	public synchronized void stop() {
+		if (fTestRunnerClient != null)
+			fTestRunnerClient.stopTest();
+	}
+
+	/**
+	 * Closes the connection and releases the test tree.
+	 */
+	public synchronized void dispose() {
+		if (fTestRunnerClient != null) {
+			fTestRunnerClient.shutDown();
+			fTestRunnerClient= null;
+		}
+		fTestRunSession.removeTestSessionListener(fCompletionListener);
+		TestRoot testRoot= fTestRunSession.getTestRoot();
+		if (testRoot != null)
+			testRoot.dispose();
+	}
+}
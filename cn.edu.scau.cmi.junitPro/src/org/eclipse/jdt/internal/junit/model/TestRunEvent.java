@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+
+/**
+ * A test run event received by a {@link RemoteTestRunnerClient}. Instances are
+ * preallocated by the client and reused for the following events.
+ *
+ * @see ITestRunListener3
+ */
+public final class TestRunEvent {
+
+	public static final int RUN_STARTED= 1;
+	public static final int TREE_ENTRY= 2;
+	public static final int TEST_STARTED= 3;
+	public static final int TEST_ENDED= 4;
+	public static final int TEST_FAILED= 5;
+	public static final int TEST_RERAN= 6;
+	public static final int RUN_ENDED= 7;
+	public static final int RUN_STOPPED= 8;
+	public static final int RUN_TERMINATED= 9;
+
+	int fKind;
+	String fTestId;
+	String fTestName;
+	String fClassName;
+	String fTreeEntry;
+	int fStatus;
+	String fTrace;
+	String fExpected;
+	String fActual;
+	int fTestCount;
+	long fElapsedTime;
+
+	TestRunEvent() {
+	}
+
+	/**
+	 * @return the kind of the event, one of the constants in this class
+	 */
+	public int getKind() {
+		return fKind;
+	}
+
+	/**
+	 * @return the test id for test events, otherwise <code>null</code>
+	 */
+	public String getTestId() {
+		return fTestId;
+	}
+
+	/**
+	 * @return the test name for test events, otherwise <code>null</code>
+	 */
+	public String getTestName() {
+		return fTestName;
+	}
+
+	/**
+	 * @return the test class name of a {@link #TEST_RERAN} event
+	 */
+	public String getClassName() {
+		return fClassName;
+	}
+
+	/**
+	 * @return the description of a {@link #TREE_ENTRY} event
+	 * @see ITestRunListener2#testTreeEntry(String)
+	 */
+	public String getTreeEntry() {
+		return fTreeEntry;
+	}
+
+	/**
+	 * @return the {@link ITestRunListener2} <code>STATUS_*</code> constant of a
+	 *         {@link #TEST_FAILED} or {@link #TEST_RERAN} event
+	 */
+	public int getStatus() {
+		return fStatus;
+	}
+
+	public String getTrace() {
+		return fTrace;
+	}
+
+	public String getExpected() {
+		return fExpected;
+	}
+
+	public String getActual() {
+		return fActual;
+	}
+
+	/**
+	 * @return the test count of a {@link #RUN_STARTED} event
+	 */
+	public int getTestCount() {
+		return fTestCount;
+	}
+
+	/**
+	 * @return the elapsed time of a {@link #RUN_ENDED} or {@link #RUN_STOPPED} event
+	 */
+	public long getElapsedTime() {
+		return fElapsedTime;
+	}
+
+	/**
+	 * Calls the {@link ITestRunListener2} method that corresponds to this event.
+	 *
+	 * @param listener the listener to notify
+	 */
+	public void dispatch(ITestRunListener2 listener) {
+		switch (fKind) {
+			case RUN_STARTED:
+				listener.testRunStarted(fTestCount);
+				break;
+			case TREE_ENTRY:
+				listener.testTreeEntry(fTreeEntry);
+				break;
+			case TEST_STARTED:
+				listener.testStarted(fTestId, fTestName);
+				break;
+			case TEST_ENDED:
+				listener.testEnded(fTestId, fTestName);
+				break;
+			case TEST_FAILED:
+				listener.testFailed(fStatus, fTestId, fTestName, fTrace, fExpected, fActual);
+				break;
+			case TEST_RERAN:
+				listener.testReran(fTestId, fClassName, fTestName, fStatus, fTrace, fExpected, fActual);
+				break;
+			case RUN_ENDED:
+				listener.testRunEnded(fElapsedTime);
+				break;
+			case RUN_STOPPED:
+				listener.testRunStopped(fElapsedTime);
+				break;
+			case RUN_TERMINATED:
+				listener.testRunTerminated();
+				break;
+		}
+	}
+
+	void copy(TestRunEvent event) {
+		fKind= event.fKind;
+		fTestId= event.fTestId;
+		fTestName= event.fTestName;
+		fClassName= event.fClassName;
+		fTreeEntry= event.fTreeEntry;
+		fStatus= event.fStatus;
+		fTrace= event.fTrace;
+		fExpected= event.fExpected;
+		fActual= event.fActual;
+		fTestCount= event.fTestCount;
+		fElapsedTime= event.fElapsedTime;
+	}
+
+	void reset(int kind) {
+		fKind= kind;
+		fTestId= null;
+		fTestName= null;
+		fClassName= null;
+		fTreeEntry= null;
+		fStatus= 0;
+		fTrace= null;
+		fExpected= null;
+		fActual= null;
+		fTestCount= 0;
+		fElapsedTime= 0;
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * A single-producer/single-consumer queue of {@link TestRunEvent}s that
+ * decouples the thread reading the RemoteTestRunner's messages from the thread
+ * that updates the model.
+ * <p>
+ * The producer copies events into preallocated slots of a ring buffer and
+ * publishes them by advancing the tail; the consumer thread applies them in
+ * order to the target listener and advances the head. No locks are taken. The
+ * consumer thread is started on demand and terminates after it has been idle
+ * for a while. If the ring is full, the producer waits for the consumer.
+ * </p>
+ * <p>
+ * Events must be offered by one thread at a time. This is the thread that
+ * reads the message stream (or, for a client that never got a connection, the
+ * thread that stops waiting for it).
+ * </p>
+ */
+final class TestRunEventQueue implements Runnable {
+
+	private static final int CAPACITY= 1024; // must be a power of 2
+	private static final int MASK= CAPACITY - 1;
+
+	private static final long IDLE_TIMEOUT_NANOS= 1000 * 1000 * 1000L;
+	private static final long FULL_WAIT_NANOS= 100 * 1000L;
+
+	private final TestRunEvent[] fSlots;
+	/**
+	 * Index of the next event to apply. Only written by the consumer.
+	 */
+	private final AtomicLong fHead= new AtomicLong();
+	/**
+	 * Index of the next free slot. Only written by the producer.
+	 */
+	private final AtomicLong fTail= new AtomicLong();
+
+	private final AtomicBoolean fConsumerActive= new AtomicBoolean();
+	/**
+	 * The consumer thread while it is parked, or <code>null</code>.
+	 */
+	private volatile Thread fParkedConsumer;
+
+	private final ITestRunListener2 fTarget;
+	private final String fThreadName;
+
+	/**
+	 * @param target the listener that applies the events
+	 * @param threadName the name of the consumer thread
+	 */
+	public TestRunEventQueue(ITestRunListener2 target, String threadName) {
+		fTarget= target;
+		fThreadName= threadName;
+		fSlots= new TestRunEvent[CAPACITY];
+		for (int i= 0; i < CAPACITY; i++) {
+			fSlots[i]= new TestRunEvent();
+		}
+	}
+
+	/**
+	 * Copies the given events into the queue. Called by the producer.
+	 *
+	 * @param events the events
+	 * @param count the number of valid events in <code>events</code>
+	 */
+	public void offer(TestRunEvent[] events, int count) {
+		long tail= fTail.get();
+		for (int i= 0; i < count; i++) {
+			while (tail - fHead.get() == CAPACITY) {
+				fTail.set(tail);
+				wakeConsumer();
+				LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+			}
+			fSlots[(int) tail & MASK].copy(events[i]);
+			tail++;
+			fTail.lazySet(tail);
+		}
+		fTail.set(tail); // orders the publication before the check in wakeConsumer()
+		wakeConsumer();
+	}
+
+	private void wakeConsumer() {
+		if (! fConsumerActive.get() && fConsumerActive.compareAndSet(false, true)) {
+			Thread consumer= new Thread(this, fThreadName);
+			consumer.setDaemon(true);
+			consumer.start();
+			return;
+		}
+		Thread parked= fParkedConsumer;
+		if (parked != null)
+			LockSupport.unpark(parked);
+	}
+
+	public void run() {
+		Thread current= Thread.currentThread();
+		while (true) {
+			long head= fHead.get();
+			long tail= fTail.get();
+			if (head != tail) {
+				do {
+					TestRunEvent event= fSlots[(int) head & MASK];
+					apply(event);
+					event.reset(0);
+					head++;
+					fHead.lazySet(head);
+				} while (head != tail);
+				continue;
+			}
+
+			fParkedConsumer= current;
+			if (fTail.get() == head)
+				LockSupport.parkNanos(this, IDLE_TIMEOUT_NANOS);
+			fParkedConsumer= null;
+
+			if (fTail.get() == head) {
+				fConsumerActive.set(false);
+				// the producer may have published after the check, but before it saw the consumer inactive:
+				if (fTail.get() == head || ! fConsumerActive.compareAndSet(false, true))
+					return;
+			}
+		}
+	}
+
+	private void apply(TestRunEvent event) {
+		try {
+			event.dispatch(fTarget);
+		} catch (RuntimeException e) {
+			JUnitPlugin.log(e);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.eclipse.jdt.junit.model.ITestElement.Result;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * The persistent history of test runs, kept in the history directory of the plug-in.
+ * <p>
+ * The test trees of the runs are stored in the swap files of the sessions
+ * (see {@link BinarySwapFormat}), which are written once and never modified.
+ * A small index file records the header of each run, i.e. the swap file, the
+ * name, the project, the start time, the counters and the result. On startup,
+ * only the index is read: the sessions are restored without their test trees,
+ * which are mapped when a session is {@link TestRunSession#swapIn() swapped in}.
+ * </p>
+ * <p>
+ * The index is append-only: a run is added when its swap file has been written
+ * and removed by appending a removal record. The index is compacted when it is
+ * {@link #load(int) loaded}. If the index is missing or cannot be read to the
+ * end, e.g. after a crash, the runs of swap files that it does not list are
+ * recovered from the headers of the swap files, with the file name as name.
+ * </p>
+ * Layout of the index file (see {@link DataOutputStream}):
+ * <pre>
+ * magic version
+ * record*            (ADD fileName name project startTime total started failures errors ignored result stopped)
+ *                    | (REMOVE fileName)
+ * </pre>
+ */
+final class TestRunHistory {
+
+	private static final String INDEX_FILE_NAME= "history.index"; //$NON-NLS-1$
+	private static final String TEMP_INDEX_FILE_NAME= "history.index.tmp"; //$NON-NLS-1$
+	static final String SWAP_FILE_SUFFIX= ".swap"; //$NON-NLS-1$
+
+	private static final int MAGIC= 0x4A554849; // "JUHI"
+	private static final int VERSION= 1;
+
+	private static final byte RECORD_ADD= 1;
+	private static final byte RECORD_REMOVE= 2;
+
+	/**
+	 * The results, indexed by their code in the index file.
+	 */
+	private static final Result[] RESULTS= { Result.UNDEFINED, Result.OK, Result.ERROR, Result.FAILURE, Result.IGNORED };
+
+	/**
+	 * The header of a test run, as recorded in the index.
+	 */
+	private static final class Entry {
+		String fFileName;
+		String fName;
+		String fProject;
+		long fStartTime;
+		int fTotalCount;
+		int fStartedCount;
+		int fFailureCount;
+		int fErrorCount;
+		int fIgnoredCount;
+		byte fResult;
+		boolean fStopped;
+	}
+
+	private final File fDirectory;
+	private final File fIndexFile;
+
+	/**
+	 * @param directory the history directory
+	 */
+	public TestRunHistory(File directory) {
+		fDirectory= directory;
+		fIndexFile= new File(directory, INDEX_FILE_NAME);
+	}
+
+	/**
+	 * Restores the youngest test runs of the history. The swap files of older
+	 * runs and all other files in the history directory are deleted, and the
+	 * index is compacted.
+	 *
+	 * @param maxCount the maximum number of runs to restore
+	 * @return the restored sessions without their test trees, youngest first
+	 */
+	public synchronized List/*<TestRunSession>*/ load(int maxCount) {
+		LinkedHashMap/*<String, Entry>*/ entryMap= new LinkedHashMap();
+		int recordCount= readIndex(entryMap);
+		if (recordCount == -1)
+			recoverEntries(entryMap); // don't delete the runs that the index has lost
+
+		List/*<Entry>*/ entries= new ArrayList();
+		for (Iterator iter= entryMap.values().iterator(); iter.hasNext();) {
+			Entry entry= (Entry) iter.next();
+			if (new File(fDirectory, entry.fFileName).isFile())
+				entries.add(entry);
+		}
+		Collections.sort(entries, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long startTime1= ((Entry) o1).fStartTime;
+				long startTime2= ((Entry) o2).fStartTime;
+				return startTime1 > startTime2 ? -1 : startTime1 == startTime2 ? 0 : 1;
+			}
+		});
+		if (entries.size() > maxCount)
+			entries= entries.subList(0, Math.max(maxCount, 0));
+
+		HashSet/*<String>*/ fileNames= new HashSet();
+		fileNames.add(INDEX_FILE_NAME);
+		for (int i= 0; i < entries.size(); i++)
+			fileNames.add(((Entry) entries.get(i)).fFileName);
+		File[] files= fDirectory.listFiles();
+		if (files != null) {
+			for (int i= 0; i < files.length; i++) {
+				if (! fileNames.contains(files[i].getName()))
+					files[i].delete();
+			}
+		}
+
+		if (recordCount != entries.size())
+			writeIndex(entries);
+
+		List/*<TestRunSession>*/ sessions= new ArrayList(entries.size());
+		for (int i= 0; i < entries.size(); i++)
+			sessions.add(createSession((Entry) entries.get(i)));
+		return sessions;
+	}
+
+	/**
+	 * Adds a test run whose swap file has been written.
+	 *
+	 * @param session the session
+	 * @param swapFile the swap file of the session
+	 */
+	public synchronized void add(TestRunSession session, File swapFile) {
+		Entry entry= new Entry();
+		entry.fFileName= swapFile.getName();
+		entry.fName= session.getTestRunName();
+		IJavaProject project= session.getLaunchedProject();
+		entry.fProject= project == null ? "" : project.getElementName(); //$NON-NLS-1$
+		entry.fStartTime= session.fStartTime;
+		entry.fTotalCount= session.fTotalCount;
+		entry.fStartedCount= session.fStartedCount;
+		entry.fFailureCount= session.fFailureCount;
+		entry.fErrorCount= session.fErrorCount;
+		entry.fIgnoredCount= session.fIgnoredCount;
+		entry.fResult= getResultCode(session.getTestResult(true));
+		entry.fStopped= session.fIsStopped;
+
+		DataOutputStream out= null;
+		try {
+			out= openIndexForAppend();
+			writeEntry(out, entry);
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 * Removes a test run. Does nothing if the run has not been added.
+	 *
+	 * @param swapFile the swap file of the session
+	 */
+	public synchronized void remove(File swapFile) {
+		if (! fIndexFile.isFile())
+			return;
+		DataOutputStream out= null;
+		try {
+			out= openIndexForAppend();
+			out.writeByte(RECORD_REMOVE);
+			out.writeUTF(swapFile.getName());
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 * Replays the index.
+	 *
+	 * @param entries receives the runs that have not been removed, by file name
+	 * @return the number of records read, or -1 if the index is missing or invalid
+	 */
+	private int readIndex(LinkedHashMap/*<String, Entry>*/ entries) {
+		if (! fIndexFile.isFile())
+			return -1;
+		DataInputStream in= null;
+		int recordCount= 0;
+		try {
+			in= new DataInputStream(new BufferedInputStream(new FileInputStream(fIndexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return -1;
+			while (true) {
+				int type= in.read();
+				if (type == -1)
+					break;
+				if (type == RECORD_ADD) {
+					Entry entry= readEntry(in);
+					entries.remove(entry.fFileName); // re-added runs move to the end
+					entries.put(entry.fFileName, entry);
+				} else if (type == RECORD_REMOVE) {
+					entries.remove(in.readUTF());
+				} else {
+					return -1;
+				}
+				recordCount++;
+			}
+		} catch (EOFException e) {
+			// the last record is incomplete, e.g. after a crash
+			return -1;
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+			return -1;
+		} finally {
+			close(in);
+		}
+		return recordCount;
+	}
+
+	/**
+	 * Adds the runs of the swap files that are not in the index.
+	 *
+	 * @param entries the runs that have been read from the index, by file name
+	 */
+	private void recoverEntries(LinkedHashMap/*<String, Entry>*/ entries) {
+		File[] files= fDirectory.listFiles();
+		if (files == null)
+			return;
+		for (int i= 0; i < files.length; i++) {
+			String fileName= files[i].getName();
+			if (fileName.endsWith(SWAP_FILE_SUFFIX) && ! entries.containsKey(fileName)) {
+				Entry entry= recoverEntry(files[i]);
+				if (entry != null)
+					entries.put(fileName, entry);
+			}
+		}
+	}
+
+	/**
+	 * Reads the counters from the header of a swap file, see {@link BinarySwapFormat}.
+	 *
+	 * @param swapFile the swap file
+	 * @return the run, or <code>null</code> if the file is not a valid swap file
+	 */
+	private static Entry recoverEntry(File swapFile) {
+		DataInputStream in= null;
+		try {
+			in= new DataInputStream(new BufferedInputStream(new FileInputStream(swapFile), BinarySwapFormat.HEADER_SIZE));
+			if (in.readInt() != BinarySwapFormat.MAGIC)
+				return null;
+			int version= in.readInt();
+			if (version < BinarySwapFormat.MIN_VERSION || version > BinarySwapFormat.VERSION)
+				return null;
+			Entry entry= new Entry();
+			entry.fFileName= swapFile.getName();
+			entry.fName= entry.fFileName.substring(0, entry.fFileName.length() - SWAP_FILE_SUFFIX.length());
+			entry.fProject= ""; //$NON-NLS-1$
+			entry.fStartTime= swapFile.lastModified();
+			entry.fTotalCount= in.readInt();
+			entry.fStartedCount= in.readInt();
+			entry.fFailureCount= in.readInt();
+			entry.fErrorCount= in.readInt();
+			entry.fIgnoredCount= in.readInt();
+			Result result;
+			if (entry.fErrorCount > 0)
+				result= Result.ERROR;
+			else if (entry.fFailureCount > 0)
+				result= Result.FAILURE;
+			else
+				result= Result.OK;
+			entry.fResult= getResultCode(result);
+			entry.fStopped= entry.fStartedCount < entry.fTotalCount;
+			return entry;
+		} catch (IOException e) {
+			return null; // e.g. truncated
+		} finally {
+			close(in);
+		}
+	}
+
+	private void writeIndex(List/*<Entry>*/ entries) {
+		File tempFile= new File(fDirectory, TEMP_INDEX_FILE_NAME);
+		DataOutputStream out= null;
+		try {
+			out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (int i= 0; i < entries.size(); i++)
+				writeEntry(out, (Entry) entries.get(i));
+			out.close();
+			out= null;
+			fIndexFile.delete();
+			if (! tempFile.renameTo(fIndexFile))
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+		} finally {
+			close(out);
+			tempFile.delete();
+		}
+	}
+
+	private DataOutputStream openIndexForAppend() throws IOException {
+		boolean exists= fIndexFile.isFile();
+		DataOutputStream out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fIndexFile, exists)));
+		if (! exists) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		return out;
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeByte(RECORD_ADD);
+		out.writeUTF(entry.fFileName);
+		out.writeUTF(entry.fName);
+		out.writeUTF(entry.fProject);
+		out.writeLong(entry.fStartTime);
+		out.writeInt(entry.fTotalCount);
+		out.writeInt(entry.fStartedCount);
+		out.writeInt(entry.fFailureCount);
+		out.writeInt(entry.fErrorCount);
+		out.writeInt(entry.fIgnoredCount);
+		out.writeByte(entry.fResult);
+		out.writeBoolean(entry.fStopped);
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		Entry entry= new Entry();
+		entry.fFileName= in.readUTF();
+		entry.fName= in.readUTF();
+		entry.fProject= in.readUTF();
+		entry.fStartTime= in.readLong();
+		entry.fTotalCount= in.readInt();
+		entry.fStartedCount= in.readInt();
+		entry.fFailureCount= in.readInt();
+		entry.fErrorCount= in.readInt();
+		entry.fIgnoredCount= in.readInt();
+		entry.fResult= in.readByte();
+		entry.fStopped= in.readBoolean();
+		return entry;
+	}
+
+	private TestRunSession createSession(Entry entry) {
+		IJavaProject project= null;
+		if (entry.fProject.length() > 0 && JUnitPlugin.getDefault() != null) {
+			project= JavaCore.create(ResourcesPlugin.getWorkspace().getRoot()).getJavaProject(entry.fProject);
+			if (! project.exists())
+				project= null;
+		}
+		Result result= entry.fResult >= 0 && entry.fResult < RESULTS.length ? RESULTS[entry.fResult] : null;
+		TestRunSession session= new TestRunSession(entry.fName, project, entry.fStartTime, result, new File(fDirectory, entry.fFileName));
+		session.fTotalCount= entry.fTotalCount;
+		session.fStartedCount= entry.fStartedCount;
+		session.fFailureCount= entry.fFailureCount;
+		session.fErrorCount= entry.fErrorCount;
+		session.fIgnoredCount= entry.fIgnoredCount;
+		session.fIsStopped= entry.fStopped;
+		return session;
+	}
+
+	private static byte getResultCode(Result result) {
+		for (int i= 0; i < RESULTS.length; i++) {
+			if (RESULTS[i] == result)
+				return (byte) i;
+		}
+		return -1;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				JUnitPlugin.log(e);
+			}
+		}
+	}
+}
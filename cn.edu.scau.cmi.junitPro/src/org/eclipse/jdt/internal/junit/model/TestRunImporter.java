@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Stack;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+
+import org.eclipse.jdt.core.IJavaModel;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+import org.eclipse.jdt.internal.junit.BasicElementLabels;
+import org.eclipse.jdt.internal.junit.model.TestElement.Status;
+
+/**
+ * Reads test run sessions from XML files with a StAX pull parser.
+ * <p>
+ * Reads the format written by {@link TestRunSessionSerializer} as well as
+ * the reports of Ant's <code>junit</code> and <code>junitreport</code>
+ * tasks. It is meant for large files:
+ * </p>
+ * <ul>
+ * <li>failure traces and expected and actual values are cut off after
+ * {@link #MAX_TEXT_LENGTH} characters,</li>
+ * <li>the content of <code>system-out</code>, <code>system-err</code>,
+ * <code>properties</code> and unknown elements is skipped without being
+ * collected,</li>
+ * <li>the progress is reported by the number of bytes read, and the import
+ * can be cancelled,</li>
+ * <li>gzip compressed files are detected by their magic bytes and read
+ * transparently.</li>
+ * </ul>
+ * Not thread-safe.
+ */
+final class TestRunImporter {
+
+	/**
+	 * Maximum number of characters of a failure trace, an expected or an actual value.
+	 */
+	static final int MAX_TEXT_LENGTH= 1024 * 1024;
+
+	/**
+	 * Appended to texts that have been cut off.
+	 */
+	private static final String TRUNCATED= "\n..."; //$NON-NLS-1$
+
+	private static final int BUFFER_SIZE= 64 * 1024;
+
+	/**
+	 * The first two bytes of a gzip file, see {@link GZIPInputStream#GZIP_MAGIC}.
+	 */
+	private static final int GZIP_MAGIC_1= 0x1f;
+	private static final int GZIP_MAGIC_2= 0x8b;
+	/**
+	 * Bytes per unit of work.
+	 */
+	private static final int PROGRESS_UNIT= 1024;
+
+	/**
+	 * Counts the bytes read from the file.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		long fCount;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			int b= super.read();
+			if (b != -1)
+				fCount++;
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n= super.read(b, off, len);
+			if (n > 0)
+				fCount+= n;
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped= super.skip(n);
+			fCount+= skipped;
+			return skipped;
+		}
+	}
+
+	private final boolean fNewSession;
+	/**
+	 * The factory for the parser, or <code>null</code> to create one.
+	 */
+	private final XMLInputFactory fInputFactory;
+	private TestRunSession fTestRunSession;
+
+	private int fId;
+	private TestSuiteElement fTestSuite;
+	private TestCaseElement fTestCase;
+	private Stack/*<Boolean>*/ fNotRun= new Stack();
+
+	private Status fStatus;
+	private StringBuffer fFailureBuffer;
+	private StringBuffer fExpectedBuffer;
+	private StringBuffer fActualBuffer;
+	/**
+	 * The buffer that receives the characters, or <code>null</code>.
+	 */
+	private StringBuffer fText;
+
+	private IProgressMonitor fMonitor;
+	private CountingInputStream fInput;
+	private long fReported;
+
+	/**
+	 * Creates an importer that creates a new test run session.
+	 */
+	public TestRunImporter() {
+		this((XMLInputFactory) null);
+	}
+
+	/**
+	 * Creates an importer that creates a new test run session.
+	 *
+	 * @param inputFactory the factory for the parser, as created by
+	 *        {@link #createInputFactory()}, or <code>null</code> to create one
+	 */
+	public TestRunImporter(XMLInputFactory inputFactory) {
+		fNewSession= true;
+		fInputFactory= inputFactory;
+	}
+
+	/**
+	 * Creates an importer that reads into an existing test run session.
+	 *
+	 * @param testRunSession the session, gets {@link TestRunSession#reset() reset}
+	 */
+	public TestRunImporter(TestRunSession testRunSession) {
+		fNewSession= false;
+		fInputFactory= null;
+		fTestRunSession= testRunSession;
+	}
+
+	/**
+	 * Reads a test run session from the given file.
+	 *
+	 * @param file the file
+	 * @param monitor the progress monitor, or <code>null</code>
+	 * @return the test run session
+	 * @throws IOException if the file could not be read or does not contain a test run
+	 * @throws XMLStreamException if the file is not well-formed
+	 * @throws OperationCanceledException if the monitor has been cancelled
+	 */
+	public TestRunSession read(File file, IProgressMonitor monitor) throws IOException, XMLStreamException {
+		fMonitor= monitor != null ? monitor : new NullProgressMonitor();
+		fMonitor.beginTask(BasicElementLabels.getPathLabel(file), (int) Math.min(file.length() / PROGRESS_UNIT + 1, Integer.MAX_VALUE));
+		BufferedInputStream fileInput= new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		fInput= new CountingInputStream(fileInput);
+		InputStream input= fInput;
+		XMLStreamReader reader= null;
+		boolean completed= false;
+		try {
+			if (isCompressed(fileInput)) // progress counts the compressed bytes
+				input= new GZIPInputStream(fInput, BUFFER_SIZE);
+			XMLInputFactory inputFactory= fInputFactory != null ? fInputFactory : createInputFactory();
+			reader= inputFactory.createXMLStreamReader(input);
+			read(reader);
+			if (fTestRunSession == null)
+				throw new IOException("No test run found"); //$NON-NLS-1$
+			completed= true;
+			return fTestRunSession;
+		} finally {
+			if (reader != null)
+				reader.close();
+			input.close();
+			if (! completed && fNewSession && fTestRunSession != null)
+				fTestRunSession.getTestRoot().dispose();
+			fMonitor.done();
+		}
+	}
+
+	/**
+	 * Tells whether a stream starts with the gzip magic bytes. Does not consume any bytes.
+	 *
+	 * @param in the stream, must support {@link InputStream#mark(int)}
+	 * @return <code>true</code> iff the stream is gzip compressed
+	 * @throws IOException if reading failed
+	 */
+	static boolean isCompressed(InputStream in) throws IOException {
+		in.mark(2);
+		try {
+			return in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/**
+	 * @return a new factory for the parser; factories are expensive to create
+	 *         and should not be shared between threads
+	 */
+	static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory= XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+
+	private void read(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					startElement(reader);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement(reader.getLocalName());
+					worked();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					if (fText != null)
+						append(fText, reader);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private void startElement(XMLStreamReader reader) throws XMLStreamException {
+		String name= reader.getLocalName();
+		if (name.equals(IXMLTags.NODE_TESTRUN)) {
+			if (fTestRunSession == null) {
+				String project= reader.getAttributeValue(null, IXMLTags.ATTR_PROJECT);
+				fTestRunSession= new TestRunSession(reader.getAttributeValue(null, IXMLTags.ATTR_NAME), getJavaProject(project));
+			} else {
+				fTestRunSession.reset();
+			}
+			fTestSuite= fTestRunSession.getTestRoot();
+
+		} else if (name.equals(IXMLTags.NODE_TESTSUITES)) {
+			// support Ant's 'junitreport' task; create suite from NODE_TESTSUITE
+
+		} else if (name.equals(IXMLTags.NODE_TESTSUITE)) {
+			String suiteName= reader.getAttributeValue(null, IXMLTags.ATTR_NAME);
+			if (fTestRunSession == null) {
+				// support standalone suites and Ant's 'junitreport' task:
+				fTestRunSession= new TestRunSession(suiteName, null);
+				fTestSuite= fTestRunSession.getTestRoot();
+			}
+			String pack= reader.getAttributeValue(null, IXMLTags.ATTR_PACKAGE);
+			if (pack != null)
+				suiteName= pack + '.' + suiteName;
+			fTestSuite= (TestSuiteElement) fTestRunSession.createTestElement(fTestSuite, getNextId(), suiteName, true, 0);
+			readTime(fTestSuite, reader);
+			fNotRun.push(Boolean.valueOf(reader.getAttributeValue(null, IXMLTags.ATTR_INCOMPLETE)));
+
+		} else if (name.equals(IXMLTags.NODE_TESTCASE)) {
+			if (fTestSuite == null) {
+				skipElement(reader);
+				return;
+			}
+			String testName= reader.getAttributeValue(null, IXMLTags.ATTR_NAME);
+			String className= reader.getAttributeValue(null, IXMLTags.ATTR_CLASSNAME);
+			fTestCase= (TestCaseElement) fTestRunSession.createTestElement(fTestSuite, getNextId(), testName + '(' + className + ')', false, 0);
+			fNotRun.push(Boolean.valueOf(reader.getAttributeValue(null, IXMLTags.ATTR_INCOMPLETE)));
+			fTestCase.setIgnored(Boolean.valueOf(reader.getAttributeValue(null, IXMLTags.ATTR_IGNORED)).booleanValue());
+			readTime(fTestCase, reader);
+
+		} else if (name.equals(IXMLTags.NODE_ERROR) || name.equals(IXMLTags.NODE_FAILURE)) {
+			//TODO: multiple failures: https://bugs.eclipse.org/bugs/show_bug.cgi?id=125296
+			fStatus= name.equals(IXMLTags.NODE_ERROR) ? Status.ERROR : Status.FAILURE;
+			fFailureBuffer= new StringBuffer();
+			fText= fFailureBuffer;
+
+		} else if (name.equals(IXMLTags.NODE_EXPECTED) && fFailureBuffer != null) {
+			fExpectedBuffer= new StringBuffer();
+			fText= fExpectedBuffer;
+
+		} else if (name.equals(IXMLTags.NODE_ACTUAL) && fFailureBuffer != null) {
+			fActualBuffer= new StringBuffer();
+			fText= fActualBuffer;
+
+		} else {
+			// system-out, system-err, properties and unknown elements
+			skipElement(reader);
+		}
+	}
+
+	private void endElement(String name) {
+		if (name.equals(IXMLTags.NODE_TESTSUITE)) {
+			handleTestElementEnd(fTestSuite);
+			fTestSuite= fTestSuite.getParent();
+			//TODO: end suite: compare counters?
+
+		} else if (name.equals(IXMLTags.NODE_TESTCASE)) {
+			handleTestElementEnd(fTestCase);
+			fTestCase= null;
+
+		} else if (name.equals(IXMLTags.NODE_ERROR) || name.equals(IXMLTags.NODE_FAILURE)) {
+			handleFailure(fTestCase != null ? (TestElement) fTestCase : fTestSuite);
+
+		} else if (name.equals(IXMLTags.NODE_EXPECTED) || name.equals(IXMLTags.NODE_ACTUAL)) {
+			fText= fFailureBuffer;
+		}
+	}
+
+	/**
+	 * Skips the current element and its content.
+	 *
+	 * @param reader the reader, positioned at the start of the element
+	 * @throws XMLStreamException if the content is not well-formed
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth= 1;
+		while (depth > 0) {
+			int event= reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				worked();
+			}
+		}
+	}
+
+	private static void append(StringBuffer buffer, XMLStreamReader reader) {
+		int length= buffer.length();
+		if (length > MAX_TEXT_LENGTH)
+			return; // already cut off
+		int textLength= reader.getTextLength();
+		if (length + textLength <= MAX_TEXT_LENGTH) {
+			buffer.append(reader.getTextCharacters(), reader.getTextStart(), textLength);
+		} else {
+			buffer.append(reader.getTextCharacters(), reader.getTextStart(), MAX_TEXT_LENGTH - length);
+			buffer.append(TRUNCATED);
+		}
+	}
+
+	private void handleTestElementEnd(TestElement testElement) {
+		boolean completed= fNotRun.pop() != Boolean.TRUE;
+		fTestRunSession.registerTestEnded(testElement, completed);
+	}
+
+	private void handleFailure(TestElement testElement) {
+		if (fFailureBuffer != null && testElement != null) {
+			fTestRunSession.registerTestFailureStatus(testElement, fStatus, fFailureBuffer.toString(), toString(fExpectedBuffer), toString(fActualBuffer));
+		}
+		fFailureBuffer= null;
+		fExpectedBuffer= null;
+		fActualBuffer= null;
+		fText= null;
+		fStatus= null;
+	}
+
+	private static String toString(StringBuffer buffer) {
+		return buffer != null ? buffer.toString() : null;
+	}
+
+	private static void readTime(TestElement testElement, XMLStreamReader reader) {
+		String timeString= reader.getAttributeValue(null, IXMLTags.ATTR_TIME);
+		if (timeString != null) {
+			try {
+				testElement.setElapsedTimeInSeconds(Double.parseDouble(timeString));
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	private static IJavaProject getJavaProject(String project) {
+		if (project == null)
+			return null;
+		IJavaModel javaModel= JavaCore.create(ResourcesPlugin.getWorkspace().getRoot());
+		IJavaProject javaProject= javaModel.getJavaProject(project);
+		return javaProject.exists() ? javaProject : null;
+	}
+
+	/**
+	 * Reports the bytes read since the last call and checks for cancellation.
+	 */
+	private void worked() {
+		long units= fInput.fCount / PROGRESS_UNIT;
+		if (units > fReported) {
+			fMonitor.worked((int) (units - fReported));
+			fReported= units;
+			if (fMonitor.isCanceled())
+				throw new OperationCanceledException();
+		}
+	}
+
+	private String getNextId() {
+		return Integer.toString(fId++);
+	}
+}
@@ -29,7 +29,10 @@ public class TestRunListenerAdapter implements ITestSessionListener {
 	}
 
 	private Object[] getListeners() {
-		return JUnitPlugin.getDefault().getNewTestRunListeners().getListeners();
+		JUnitPlugin plugin= JUnitPlugin.getDefault();
+		if (plugin == null)
+			return new Object[0]; // not running in the workbench
+		return plugin.getNewTestRunListeners().getListeners();
 	}
 
 	private void fireSessionStarted() {
@@ -11,12 +11,19 @@
 package org.eclipse.jdt.internal.junit.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.junit.model.ITestElement;
 import org.eclipse.jdt.junit.model.ITestElementContainer;
@@ -71,10 +78,36 @@ public class TestRunSession implements ITestRunSession {
 
 	private final ListenerList/*<ITestSessionListener>*/ fSessionListeners;
 
+	/**
+	 * Writes swap files in the background. If too many swap-outs are pending,
+	 * the caller of {@link #swapOut()} writes the file itself.
+	 */
+	private static final ExecutorService fgSwapExecutor= createSwapExecutor();
+	private static final int MAX_PENDING_SWAP_OUTS= 8;
+
 	/**
 	 * The model root, or <code>null</code> if swapped to disk.
 	 */
-	private TestRoot fTestRoot;
+	private volatile TestRoot fTestRoot;
+
+	/**
+	 * Guards the transitions of {@link #fTestRoot} between memory and disk.
+	 */
+	private final Object fSwapLock= new Object();
+	/**
+	 * The swap-out whose file is being written, or <code>null</code>.
+	 */
+	private volatile SwapOut fPendingSwapOut;
+	/**
+	 * The test root whose swap file has been written, or <code>null</code>.
+	 */
+	private TestRoot fWrittenRoot;
+	/**
+	 * The swap file, or <code>null</code> if the test tree has not been swapped
+	 * out yet. Sessions restored from the {@link TestRunHistory} start with the
+	 * swap file from its index. Guarded by {@link #fSwapLock} after construction.
+	 */
+	private File fSwapFile;
 
 	/**
 	 * The test run session's cached result, or <code>null</code> if <code>fTestRoot != null</code>.
@@ -84,7 +117,17 @@ public class TestRunSession implements ITestRunSession {
 	/**
 	 * Map from testId to testElement.
 	 */
-	private HashMap/*<String, TestElement>*/ fIdToTest;
+	private TestElementIndex fIdToTest;
+
+	/**
+	 * Shared names of the test elements.
+	 */
+	private TestNamePool fNamePool;
+
+	/**
+	 * Parses the tree entries of the test runner. Only used by the thread that updates the model.
+	 */
+	private final TestTreeEntryParser fTreeEntryParser= new TestTreeEntryParser();
 
 	/**
 	 * The TestSuites for which additional children are expected.
@@ -124,6 +167,11 @@ public class TestRunSession implements ITestRunSession {
 
 	volatile boolean fIsStopped;
 
+	/**
+	 * The time in millis when this session was last shown, see {@link #markViewed()}.
+	 */
+	private volatile long fLastViewedTime= System.currentTimeMillis();
+
 
 	/**
 	 * Creates a test run session.
@@ -142,13 +190,34 @@ public class TestRunSession implements ITestRunSession {
 		fTestRunnerKind= ITestKind.NULL; //TODO
 
 		fTestRoot= new TestRoot(this);
-		fIdToTest= new HashMap();
+		fIdToTest= new TestElementIndex();
+		fNamePool= new TestNamePool();
 
 		fTestRunnerClient= null;
 
 		fSessionListeners= new ListenerList();
 	}
 
+	/**
+	 * Creates a test run session of the {@link TestRunHistory}. The test tree
+	 * is read from the swap file when the session is {@link #swapIn() swapped in}.
+	 *
+	 * @param testRunName name of the test run
+	 * @param project may be <code>null</code>
+	 * @param startTime the start time
+	 * @param testResult the result of the test run
+	 * @param swapFile the swap file
+	 */
+	TestRunSession(String testRunName, IJavaProject project, long startTime, Result testResult, File swapFile) {
+		this(testRunName, project);
+		fStartTime= startTime;
+		fLastViewedTime= startTime;
+		fSwapFile= swapFile;
+		fTestRoot.dispose();
+		fTestRoot= null;
+		fTestResult= testResult;
+	}
+
 
 	public TestRunSession(ILaunch launch, IJavaProject project, int port) {
 		Assert.isNotNull(launch);
@@ -166,9 +235,10 @@ public class TestRunSession implements ITestRunSession {
 		}
 
 		fTestRoot= new TestRoot(this);
-		fIdToTest= new HashMap();
+		fIdToTest= new TestElementIndex();
+		fNamePool= new TestNamePool();
 
-		fTestRunnerClient= new RemoteTestRunnerClient();
+		fTestRunnerClient= createTestRunnerClient(launchConfiguration);
 		fTestRunnerClient.startListening(new ITestRunListener2[] { new TestSessionNotifier() }, port);
 
 		final ILaunchManager launchManager= DebugPlugin.getDefault().getLaunchManager();
@@ -199,6 +269,46 @@ public class TestRunSession implements ITestRunSession {
 		addTestSessionListener(new TestRunListenerAdapter(this));
 	}
 
+	/**
+	 * Starts listening to a test runner that has not been launched by the
+	 * workbench, see {@link TestRunEngine}.
+	 *
+	 * @param client the client
+	 * @param port the port on which to wait for the test runner
+	 */
+	void startListening(RemoteTestRunnerClient client, int port) {
+		fTestRunnerClient= client;
+		client.startListening(new ITestRunListener2[] { new TestSessionNotifier() }, port);
+	}
+
+	/**
+	 * Starts reading from a test runner that has not been launched by the
+	 * workbench, see {@link TestRunEngine}.
+	 *
+	 * @param client the client
+	 * @param socket the socket that is connected to the test runner
+	 */
+	void startListening(RemoteTestRunnerClient client, Socket socket) {
+		fTestRunnerClient= client;
+		client.startListening(new ITestRunListener2[] { new TestSessionNotifier() }, socket);
+	}
+
+	private static RemoteTestRunnerClient createTestRunnerClient(ILaunchConfiguration launchConfiguration) {
+		boolean nio= false;
+		boolean binaryProtocol= false;
+		if (launchConfiguration != null) {
+			try {
+				nio= launchConfiguration.getAttribute(JUnitLaunchConfigurationConstants.ATTR_NIO_CLIENT, false);
+				binaryProtocol= launchConfiguration.getAttribute(JUnitLaunchConfigurationConstants.ATTR_BINARY_PROTOCOL, false);
+			} catch (CoreException e) {
+				JUnitPlugin.log(e);
+			}
+		}
+		RemoteTestRunnerClient client= nio ? new NioTestRunnerClient() : new RemoteTestRunnerClient();
+		client.setRequestBinaryProtocol(binaryProtocol);
+		return client;
+	}
+
 	void reset() {
 		fStartedCount= 0;
 		fFailureCount= 0;
@@ -206,9 +316,12 @@ public class TestRunSession implements ITestRunSession {
 		fIgnoredCount= 0;
 		fTotalCount= 0;
 
+		if (fTestRoot != null)
+			fTestRoot.dispose();
 		fTestRoot= new TestRoot(this);
 		fTestResult= null;
-		fIdToTest= new HashMap();
+		fIdToTest= new TestElementIndex();
+		fNamePool= new TestNamePool();
 	}
 
 	/* (non-Javadoc)
@@ -269,6 +382,41 @@ public class TestRunSession implements ITestRunSession {
 		return fTestRoot;
 	}
 
+	/**
+	 * Estimates the heap used by the test tree of this session. Does not swap in.
+	 *
+	 * @return the estimated size in bytes, or 0 if the test tree is swapped out
+	 *         or will be dropped once its swap file has been written
+	 */
+	public long getEstimatedMemory() {
+		synchronized (fSwapLock) {
+			TestRoot testRoot= fTestRoot;
+			if (testRoot == null)
+				return 0;
+			SwapOut pendingSwapOut= fPendingSwapOut;
+			if (pendingSwapOut != null && pendingSwapOut.fDrop && pendingSwapOut.fSwappedRoot == testRoot)
+				return 0;
+			return testRoot.getEstimatedMemory(fIdToTest.size());
+		}
+	}
+
+	/**
+	 * Records that this session has been shown to the user. Sessions that have
+	 * not been viewed for the longest time are evicted first, see
+	 * {@link JUnitModel#evictTestRunSessions()}.
+	 */
+	public void markViewed() {
+		fLastViewedTime= System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the time in millis when this session was last shown, or when
+	 *         it was created if it has not been shown yet
+	 */
+	public long getLastViewedTime() {
+		return fLastViewedTime;
+	}
+
 	/**
 	 * @return the Java project, or <code>null</code>
 	 */
@@ -332,34 +480,164 @@ public class TestRunSession implements ITestRunSession {
 		fSessionListeners.remove(listener);
 	}
 
-	public void swapOut() {
-		if (fTestRoot == null)
-			return;
+	/**
+	 * Swaps the test tree to disk. The swap file is written in the background;
+	 * the tree stays in memory until the file has been written.
+	 *
+	 * @return <code>true</code> if the test tree has been or will be dropped
+	 *         from memory, <code>false</code> if it has to stay
+	 */
+	public boolean swapOut() {
+		SwapOut swapOut;
+		synchronized (fSwapLock) {
+			TestRoot testRoot= fTestRoot;
+			if (testRoot == null)
+				return true;
+			if (! canSwapOut())
+				return false;
+
+			if (testRoot.getSwapSource() != null || testRoot == fWrittenRoot) {
+				// the swap file already holds the tree, which cannot have changed since
+				dropTestRoot();
+				return true;
+			}
+			if (fPendingSwapOut != null && fPendingSwapOut.fSwappedRoot == testRoot) {
+				fPendingSwapOut.fDrop= true; // coalesce with the pending write
+				return true;
+			}
+
+			try {
+				swapOut= new SwapOut(testRoot, getSwapFile());
+			} catch (IllegalStateException e) {
+				JUnitPlugin.log(e);
+				return false;
+			} catch (IOException e) {
+				JUnitPlugin.log(e);
+				return false;
+			}
+			fPendingSwapOut= swapOut;
+		}
+		fgSwapExecutor.execute(swapOut);
+		return true;
+	}
+
+	private boolean canSwapOut() {
 		if (isRunning() || isStarting() || isKeptAlive())
-			return;
+			return false;
 
 		Object[] listeners= fSessionListeners.getListeners();
 		for (int i= 0; i < listeners.length; ++i) {
 			ITestSessionListener registered= (ITestSessionListener) listeners[i];
 			if (! registered.acceptsSwapToDisk())
-				return;
+				return false;
 		}
+		return true;
+	}
 
-		try {
-			File swapFile= getSwapFile();
+	/**
+	 * Drops the test tree from memory. Called with the {@link #fSwapLock} held.
+	 */
+	private void dropTestRoot() {
+		fTestResult= fTestRoot.getTestResult(true);
+		fTestRoot.dispose();
+		fTestRoot= null;
+		fWrittenRoot= null;
+		fTestRunnerClient= null;
+		fIdToTest= new TestElementIndex();
+		fNamePool= new TestNamePool();
+		fIncompleteTestSuites= null;
+		fUnrootedSuite= null;
+	}
+
+	/**
+	 * Writes the swap file of a test tree and then drops the tree from memory,
+	 * unless the session has been swapped in again in the meantime.
+	 */
+	private class SwapOut implements Runnable {
+		final TestRoot fSwappedRoot;
+		private final File fSwapFile;
+		// guarded by fSwapLock:
+		boolean fDrop= true;
+		boolean fCancelled;
+
+		SwapOut(TestRoot testRoot, File swapFile) {
+			fSwappedRoot= testRoot;
+			fSwapFile= swapFile;
+		}
+
+		/**
+		 * Released when the swap-out has completed or has been skipped.
+		 */
+		final CountDownLatch fDone= new CountDownLatch(1);
 
-			JUnitModel.exportTestRunSession(this, swapFile);
-			fTestResult= fTestRoot.getTestResult(true);
-			fTestRoot= null;
-			fTestRunnerClient= null;
-			fIdToTest= new HashMap();
-			fIncompleteTestSuites= null;
-			fUnrootedSuite= null;
+		public void run() {
+			try {
+				swapOut();
+			} finally {
+				fDone.countDown();
+			}
+		}
 
-		} catch (IllegalStateException e) {
-			JUnitPlugin.log(e);
-		} catch (CoreException e) {
-			JUnitPlugin.log(e);
+		private void swapOut() {
+			synchronized (fSwapLock) {
+				if (fCancelled || fPendingSwapOut != this)
+					return;
+			}
+			boolean written= false;
+			try {
+				JUnitModel.swapOutTestRunSession(TestRunSession.this, fSwappedRoot, fSwapFile);
+				written= true;
+			} catch (CoreException e) {
+				JUnitPlugin.log(e);
+			}
+			synchronized (fSwapLock) {
+				if (fCancelled) {
+					fSwapFile.delete();
+					return;
+				}
+				if (fPendingSwapOut == this)
+					fPendingSwapOut= null;
+				if (! written || fTestRoot != fSwappedRoot)
+					return;
+				fWrittenRoot= fSwappedRoot;
+				TestRunHistory history= JUnitModel.getTestRunHistory();
+				if (history != null)
+					history.add(TestRunSession.this, fSwapFile);
+				if (fDrop && canSwapOut())
+					dropTestRoot();
+			}
+		}
+	}
+
+	private static ExecutorService createSwapExecutor() {
+		ThreadFactory threadFactory= new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread= new Thread(r, "TestRunSession swap-out"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		ThreadPoolExecutor executor= new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue(MAX_PENDING_SWAP_OUTS), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Waits until the swap file of a pending {@link #swapOut()} has been written.
+	 *
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return <code>false</code> if the timeout elapsed or the thread was interrupted
+	 */
+	boolean awaitSwapOut(long timeout) {
+		SwapOut pendingSwapOut= fPendingSwapOut;
+		if (pendingSwapOut == null)
+			return true;
+		try {
+			return pendingSwapOut.fDone.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 
@@ -369,33 +647,76 @@ public class TestRunSession implements ITestRunSession {
 
 
 	public void removeSwapFile() {
-		File swapFile= getSwapFile();
-		if (swapFile.exists())
-			swapFile.delete();
+		File swapFile;
+		synchronized (fSwapLock) {
+			if (fPendingSwapOut != null) {
+				fPendingSwapOut.fCancelled= true;
+				fPendingSwapOut= null;
+			}
+			fWrittenRoot= null;
+			if (fTestRoot != null)
+				fTestRoot.dispose(); // the session has been removed
+			swapFile= fSwapFile;
+		}
+		if (swapFile == null)
+			return;
+		if (swapFile.exists() && ! swapFile.delete()) {
+			// e.g. still mapped on Windows; the history is told to drop the
+			// file below, so the next load of the history deletes it
+			JUnitPlugin.log(new IOException("Could not delete " + swapFile)); //$NON-NLS-1$
+		}
+		TestRunHistory history= JUnitModel.getTestRunHistory();
+		if (history != null)
+			history.remove(swapFile);
 	}
 
-	private File getSwapFile() throws IllegalStateException {
-		File historyDir= JUnitPlugin.getHistoryDirectory();
-		String isoTime= new SimpleDateFormat("yyyyMMdd-HHmmss.SSS").format(new Date(getStartTime())); //$NON-NLS-1$
-		String swapFileName= isoTime + ".xml"; //$NON-NLS-1$
-		return new File(historyDir, swapFileName);
+	/**
+	 * Returns the swap file. A file with a unique name is created in the
+	 * history directory on first use, since imported sessions can share a
+	 * start time or have none. Called with the {@link #fSwapLock} held.
+	 *
+	 * @return the swap file
+	 * @throws IllegalStateException if the plug-in is not running
+	 * @throws IOException if the file could not be created
+	 */
+	private File getSwapFile() throws IllegalStateException, IOException {
+		if (fSwapFile == null) {
+			long time= getStartTime() != 0 ? getStartTime() : System.currentTimeMillis();
+			String prefix= new SimpleDateFormat("yyyyMMdd-HHmmss.SSS-").format(new Date(time)); //$NON-NLS-1$
+			fSwapFile= File.createTempFile(prefix, TestRunHistory.SWAP_FILE_SUFFIX, JUnitPlugin.getHistoryDirectory());
+		}
+		return fSwapFile;
 	}
 
 
 	public void swapIn() {
-		if (fTestRoot != null)
+		if (fTestRoot != null && fPendingSwapOut == null)
 			return;
 
-		try {
-			JUnitModel.importIntoTestRunSession(getSwapFile(), this);
-		} catch (IllegalStateException e) {
-			JUnitPlugin.log(e);
-			fTestRoot= new TestRoot(this);
-			fTestResult= null;
-		} catch (CoreException e) {
-			JUnitPlugin.log(e);
-			fTestRoot= new TestRoot(this);
-			fTestResult= null;
+		synchronized (fSwapLock) {
+			if (fTestRoot != null) {
+				SwapOut pendingSwapOut= fPendingSwapOut;
+				if (pendingSwapOut != null)
+					pendingSwapOut.fDrop= false; // keep the tree, but let the write complete
+				return;
+			}
+
+			if (fSwapFile == null) {
+				fTestRoot= new TestRoot(this); // never swapped out
+				fTestResult= null;
+				return;
+			}
+			try {
+				JUnitModel.swapInTestRunSession(fSwapFile, this);
+			} catch (IllegalStateException e) {
+				JUnitPlugin.log(e);
+				fTestRoot= new TestRoot(this);
+				fTestResult= null;
+			} catch (CoreException e) {
+				JUnitPlugin.log(e);
+				fTestRoot= new TestRoot(this);
+				fTestResult= null;
+			}
 		}
 	}
 
@@ -483,22 +804,16 @@ public class TestRunSession implements ITestRunSession {
 	}
 
 	public TestElement getTestElement(String id) {
-		return (TestElement) fIdToTest.get(id);
+		return fIdToTest.get(id);
 	}
 
 	private TestElement addTreeEntry(String treeEntry) {
-		// format: testId","testName","isSuite","testcount
-		int index0= treeEntry.indexOf(',');
-		String id= treeEntry.substring(0, index0);
-
-		StringBuffer testNameBuffer= new StringBuffer(100);
-		int index1= scanTestName(treeEntry, index0 + 1, testNameBuffer);
-		String testName= testNameBuffer.toString().trim();
-
-		int index2= treeEntry.indexOf(',', index1 + 1);
-		boolean isSuite= treeEntry.substring(index1 + 1, index2).equals("true"); //$NON-NLS-1$
-
-		int testCount= Integer.parseInt(treeEntry.substring(index2 + 1));
+		TestTreeEntryParser parser= fTreeEntryParser;
+		parser.parse(treeEntry);
+		String id= parser.getId();
+		String testName= parser.getTestName();
+		boolean isSuite= parser.isSuite();
+		int testCount= parser.getTestCount();
 
 		if (fIncompleteTestSuites.isEmpty()) {
 			return createTestElement(fTestRoot, id, testName, isSuite, testCount);
@@ -520,38 +835,45 @@ public class TestRunSession implements ITestRunSession {
 			if (testCount > 0)
 				fIncompleteTestSuites.add(new IncompleteTestSuite(testSuiteElement, testCount));
 		} else {
-			testElement= new TestCaseElement(parent, id, testName);
+			testElement= fNamePool.createTestCaseElement(parent, id, testName);
 		}
 		fIdToTest.put(id, testElement);
 		return testElement;
 	}
 
 	/**
-	 * Append the test name from <code>s</code> to <code>testName</code>.
+	 * Creates a test suite element that is read from a swap file. No further
+	 * children are expected from the test runner.
 	 *
-	 * @param s the string to scan
-	 * @param start the offset of the first character in <code>s</code>
-	 * @param testName the result
+	 * @param parent the parent
+	 * @param id the test id
+	 * @param testName the test name
+	 * @param childrenCount the number of children that will be added
+	 * @return the new element
+	 */
+	TestSuiteElement restoreTestSuiteElement(TestSuiteElement parent, String id, String testName, int childrenCount) {
+		TestSuiteElement testSuiteElement= new TestSuiteElement(parent, id, fNamePool.intern(testName), childrenCount);
+		fIdToTest.put(id, testSuiteElement);
+		return testSuiteElement;
+	}
+
+	/**
+	 * Creates a test case element that is read from a swap file.
 	 *
-	 * @return the index of the next ','
-	 */
-	private int scanTestName(String s, int start, StringBuffer testName) {
-		boolean inQuote= false;
-		int i= start;
-		for (; i < s.length(); i++) {
-			char c= s.charAt(i);
-			if (c == '\\' && !inQuote) {
-				inQuote= true;
-				continue;
-			} else if (inQuote) {
-				inQuote= false;
-				testName.append(c);
-			} else if (c == ',')
-				break;
-			else
-				testName.append(c);
-		}
-		return i;
+	 * @param parent the parent
+	 * @param id the test id
+	 * @param testName the test name, or the method name if <code>rawClassName</code> is not <code>null</code>
+	 * @param rawClassName the raw class name, or <code>null</code> if the test name has not been split
+	 * @return the new element
+	 */
+	TestCaseElement restoreTestCaseElement(TestSuiteElement parent, String id, String testName, String rawClassName) {
+		TestCaseElement testCaseElement;
+		if (rawClassName == null)
+			testCaseElement= new TestCaseElement(parent, id, fNamePool.intern(testName));
+		else
+			testCaseElement= fNamePool.createTestCaseElement(parent, id, testName, rawClassName);
+		fIdToTest.put(id, testCaseElement);
+		return testCaseElement;
 	}
 
 	/**
@@ -559,7 +881,20 @@ public class TestRunSession implements ITestRunSession {
 	 * {@link RemoteTestRunnerClient} and translates them into high-level model
 	 * events (broadcasted to {@link ITestSessionListener}s).
 	 */
-	private class TestSessionNotifier implements ITestRunListener2 {
+	private class TestSessionNotifier implements ITestRunListener3 {
+
+		/**
+		 * Passes the events from the client's reader thread to the thread
+		 * that updates the model.
+		 */
+		private final TestRunEventQueue fEventQueue= new TestRunEventQueue(this, "TestRunSession"); //$NON-NLS-1$
+
+		/* (non-Javadoc)
+		 * @see org.eclipse.jdt.internal.junit.model.ITestRunListener3#testRunEvents(org.eclipse.jdt.internal.junit.model.TestRunEvent[], int)
+		 */
+		public void testRunEvents(TestRunEvent[] events, int count) {
+			fEventQueue.offer(events, count);
+		}
 
 		public void testRunStarted(int testCount) {
 			fIncompleteTestSuites= new ArrayList();
@@ -789,16 +1124,15 @@ public class TestRunSession implements ITestRunSession {
 		return (TestElement[]) failures.toArray(new TestElement[failures.size()]);
 	}
 
-	private void addFailures(ArrayList failures, ITestElement testElement) {
+	private void addFailures(ArrayList failures, TestElement testElement) {
 		Result testResult= testElement.getTestResult(true);
-		if (testResult == Result.ERROR || testResult == Result.FAILURE) {
-			failures.add(testElement);
-		}
+		if (testResult != Result.ERROR && testResult != Result.FAILURE)
+			return; // the status of a suite includes its children, so none of them has failed
+		failures.add(testElement);
 		if (testElement instanceof TestSuiteElement) {
 			TestSuiteElement testSuiteElement= (TestSuiteElement) testElement;
-			ITestElement[] children= testSuiteElement.getChildren();
-			for (int i= 0; i < children.length; i++) {
-				addFailures(failures, children[i]);
+			for (int i= 0, count= testSuiteElement.getChildCount(); i < count; i++) {
+				addFailures(failures, testSuiteElement.getChild(i));
 			}
 		}
 	}
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.jdt.junit.model.ITestElement.ProgressState;
+import org.eclipse.jdt.junit.model.ITestElement.Result;
+
+import org.eclipse.core.runtime.Assert;
+
+import org.eclipse.jdt.core.IJavaProject;
+
+/**
+ * Writes a test run session in the XML format of {@link TestRunSessionSerializer},
+ * without going through SAX events and an identity transformer.
+ * <p>
+ * The document is encoded to UTF-8 directly into a byte buffer. Strings are
+ * copied into a reusable character buffer in chunks, so long traces are not
+ * copied as a whole. Elements are indented by two spaces, except within
+ * failures, whose text content is kept as is. Characters that are not allowed
+ * in XML 1.0 are replaced by U+FFFD.
+ * </p>
+ */
+final class TestRunSessionWriter {
+
+	private static final int BUFFER_SIZE= 64 * 1024;
+	private static final int CHUNK_SIZE= 4 * 1024;
+
+	private static final String INDENT= "  "; //$NON-NLS-1$
+	private static final char REPLACEMENT_CHAR= '\uFFFD';
+
+	/**
+	 * Lets the gzip stream be closed, which releases its deflater, without
+	 * closing the caller's stream.
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	private final TestRunSession fTestRunSession;
+
+	private final byte[] fBytes= new byte[BUFFER_SIZE];
+	private final char[] fChars= new char[CHUNK_SIZE];
+	private int fCount;
+	private OutputStream fOut;
+
+	/**
+	 * @param testRunSession the test run session to write
+	 */
+	public TestRunSessionWriter(TestRunSession testRunSession) {
+		Assert.isNotNull(testRunSession);
+		fTestRunSession= testRunSession;
+	}
+
+	/**
+	 * Writes the test run session.
+	 *
+	 * @param out the stream, is not closed
+	 * @param compress whether to write the document in gzip format
+	 * @throws IOException if writing failed
+	 */
+	public void write(OutputStream out, boolean compress) throws IOException {
+		GZIPOutputStream gzipOut= compress ? new GZIPOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE) : null;
+		fOut= compress ? (OutputStream) gzipOut : out;
+		fCount= 0;
+		try {
+			writeRaw("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+			writeTestRun();
+			flushBuffer();
+			if (gzipOut != null)
+				gzipOut.finish();
+			out.flush();
+		} finally {
+			fOut= null;
+			if (gzipOut != null) {
+				try {
+					gzipOut.close();
+				} catch (IOException e) {
+					// the write has failed, and that exception is propagated
+				}
+			}
+		}
+	}
+
+	private void writeTestRun() throws IOException {
+		startElement(IXMLTags.NODE_TESTRUN);
+		writeAttribute(IXMLTags.ATTR_NAME, fTestRunSession.getTestRunName());
+		IJavaProject project= fTestRunSession.getLaunchedProject();
+		if (project != null)
+			writeAttribute(IXMLTags.ATTR_PROJECT, project.getElementName());
+		writeAttribute(IXMLTags.ATTR_TESTS, fTestRunSession.getTotalCount());
+		writeAttribute(IXMLTags.ATTR_STARTED, fTestRunSession.getStartedCount());
+		writeAttribute(IXMLTags.ATTR_FAILURES, fTestRunSession.getFailureCount());
+		writeAttribute(IXMLTags.ATTR_ERRORS, fTestRunSession.getErrorCount());
+		writeAttribute(IXMLTags.ATTR_IGNORED, fTestRunSession.getIgnoredCount());
+
+		TestRoot testRoot= fTestRunSession.getTestRoot();
+		int childCount= testRoot.getChildCount();
+		if (childCount == 0) {
+			writeRaw("/>\n"); //$NON-NLS-1$
+			return;
+		}
+		writeRaw(">\n"); //$NON-NLS-1$
+		for (int i= 0; i < childCount; i++)
+			writeTestElement(testRoot.getChild(i), 1);
+		endElement(IXMLTags.NODE_TESTRUN, 0);
+	}
+
+	private void writeTestElement(TestElement testElement, int depth) throws IOException {
+		writeIndent(depth);
+		int childCount;
+		String name;
+		if (testElement instanceof TestSuiteElement) {
+			TestSuiteElement testSuiteElement= (TestSuiteElement) testElement;
+			name= IXMLTags.NODE_TESTSUITE;
+			childCount= testSuiteElement.getChildCount();
+			startElement(name);
+			writeAttribute(IXMLTags.ATTR_NAME, testSuiteElement.getSuiteTypeName());
+			writeTime(testElement);
+			if (testElement.getProgressState() != ProgressState.COMPLETED || testElement.getTestResult(false) != Result.UNDEFINED)
+				writeAttribute(IXMLTags.ATTR_INCOMPLETE, Boolean.TRUE.toString());
+
+		} else if (testElement instanceof TestCaseElement) {
+			TestCaseElement testCaseElement= (TestCaseElement) testElement;
+			name= IXMLTags.NODE_TESTCASE;
+			childCount= 0;
+			startElement(name);
+			writeAttribute(IXMLTags.ATTR_NAME, testCaseElement.getTestMethodName());
+			writeAttribute(IXMLTags.ATTR_CLASSNAME, testCaseElement.getClassName());
+			writeTime(testElement);
+			if (testElement.getProgressState() != ProgressState.COMPLETED)
+				writeAttribute(IXMLTags.ATTR_INCOMPLETE, Boolean.TRUE.toString());
+			if (testCaseElement.isIgnored())
+				writeAttribute(IXMLTags.ATTR_IGNORED, Boolean.TRUE.toString());
+
+		} else {
+			throw new IllegalStateException(String.valueOf(testElement));
+		}
+
+		Result testResult= testElement.getTestResult(false);
+		boolean hasFailure= testResult == Result.ERROR || testResult == Result.FAILURE; // see TestElement#getFailureTrace()
+		if (childCount == 0 && ! hasFailure) {
+			writeRaw("/>\n"); //$NON-NLS-1$
+			return;
+		}
+		writeRaw(">\n"); //$NON-NLS-1$
+		if (hasFailure)
+			writeFailure(testElement, testResult, depth + 1);
+		for (int i= 0; i < childCount; i++)
+			writeTestElement(((TestSuiteElement) testElement).getChild(i), depth + 1);
+		endElement(name, depth);
+	}
+
+	private void writeFailure(TestElement testElement, Result testResult, int depth) throws IOException {
+		String failureKind= testResult == Result.ERROR ? IXMLTags.NODE_ERROR : IXMLTags.NODE_FAILURE;
+		writeIndent(depth);
+		writeRaw('<');
+		writeRaw(failureKind);
+		writeRaw('>');
+		String expected= testElement.getExpected();
+		if (expected != null)
+			writeTextElement(IXMLTags.NODE_EXPECTED, expected);
+		String actual= testElement.getActual();
+		if (actual != null)
+			writeTextElement(IXMLTags.NODE_ACTUAL, actual);
+		String trace= testElement.getTrace();
+		if (trace != null)
+			writeEscaped(trace, false);
+		endElement(failureKind, -1);
+	}
+
+	private void writeTextElement(String name, String text) throws IOException {
+		writeRaw('<');
+		writeRaw(name);
+		writeRaw('>');
+		writeEscaped(text, false);
+		writeRaw("</"); //$NON-NLS-1$
+		writeRaw(name);
+		writeRaw('>');
+	}
+
+	private void startElement(String name) throws IOException {
+		writeRaw('<');
+		writeRaw(name);
+	}
+
+	/**
+	 * @param name the element name
+	 * @param depth the depth of the element, or -1 to not indent the end tag
+	 * @throws IOException if writing failed
+	 */
+	private void endElement(String name, int depth) throws IOException {
+		if (depth >= 0)
+			writeIndent(depth);
+		writeRaw("</"); //$NON-NLS-1$
+		writeRaw(name);
+		writeRaw(">\n"); //$NON-NLS-1$
+	}
+
+	private void writeIndent(int depth) throws IOException {
+		for (int i= 0; i < depth; i++)
+			writeRaw(INDENT);
+	}
+
+	private void writeAttribute(String name, int value) throws IOException {
+		writeRaw(' ');
+		writeRaw(name);
+		writeRaw("=\""); //$NON-NLS-1$
+		writeRaw(Integer.toString(value));
+		writeRaw('"');
+	}
+
+	private void writeAttribute(String name, String value) throws IOException {
+		writeRaw(' ');
+		writeRaw(name);
+		writeRaw("=\""); //$NON-NLS-1$
+		writeEscaped(value, true);
+		writeRaw('"');
+	}
+
+	/**
+	 * Writes the elapsed time in seconds, formatted like
+	 * <code>new DecimalFormat("0.0##")</code>, but without going through a <code>double</code>.
+	 *
+	 * @param testElement the test element
+	 * @throws IOException if writing failed
+	 */
+	private void writeTime(TestElement testElement) throws IOException {
+		if (! testElement.hasElapsedTime())
+			return;
+		int millis= testElement.getTime();
+		writeRaw(' ');
+		writeRaw(IXMLTags.ATTR_TIME);
+		writeRaw("=\""); //$NON-NLS-1$
+		writeRaw(Integer.toString(millis / 1000));
+		writeRaw('.');
+		int fraction= millis % 1000;
+		writeRaw((char) ('0' + fraction / 100));
+		if (fraction % 100 != 0) {
+			writeRaw((char) ('0' + fraction / 10 % 10));
+			if (fraction % 10 != 0)
+				writeRaw((char) ('0' + fraction % 10));
+		}
+		writeRaw('"');
+	}
+
+	/**
+	 * Writes a string that consists of ASCII characters that need no escaping.
+	 *
+	 * @param s the string
+	 * @throws IOException if writing failed
+	 */
+	private void writeRaw(String s) throws IOException {
+		int length= s.length();
+		if (fCount + length > BUFFER_SIZE)
+			flushBuffer();
+		for (int i= 0; i < length; i++)
+			fBytes[fCount++]= (byte) s.charAt(i);
+	}
+
+	private void writeRaw(char c) throws IOException {
+		if (fCount == BUFFER_SIZE)
+			flushBuffer();
+		fBytes[fCount++]= (byte) c;
+	}
+
+	/**
+	 * Writes an escaped string in UTF-8.
+	 *
+	 * @param s the string
+	 * @param attribute <code>true</code> if the string is an attribute value
+	 * @throws IOException if writing failed
+	 */
+	private void writeEscaped(String s, boolean attribute) throws IOException {
+		char[] chars= fChars;
+		int length= s.length();
+		int start= 0;
+		while (start < length) {
+			int end= Math.min(start + CHUNK_SIZE, length);
+			if (end < length && Character.isHighSurrogate(s.charAt(end - 1)))
+				end--; // keep surrogate pairs in one chunk
+			s.getChars(start, end, chars, 0);
+			int count= end - start;
+			for (int i= 0; i < count; i++) {
+				// an escaped or encoded character takes at most 6 bytes
+				if (fCount > BUFFER_SIZE - 6)
+					flushBuffer();
+				char c= chars[i];
+				if (c >= 0x20 && c < 0x80) {
+					switch (c) {
+						case '&':
+							writeRaw("&amp;"); //$NON-NLS-1$
+							break;
+						case '<':
+							writeRaw("&lt;"); //$NON-NLS-1$
+							break;
+						case '>':
+							writeRaw("&gt;"); //$NON-NLS-1$
+							break;
+						case '"':
+							if (attribute)
+								writeRaw("&quot;"); //$NON-NLS-1$
+							else
+								fBytes[fCount++]= (byte) c;
+							break;
+						default:
+							fBytes[fCount++]= (byte) c;
+					}
+				} else if (c < 0x20) {
+					if (c == '\r') { // parsers turn a raw CR into LF, also in text
+						writeRaw("&#13;"); //$NON-NLS-1$
+					} else if (c == '\n' || c == '\t') {
+						if (attribute) // attribute values are normalized by parsers
+							writeRaw(c == '\n' ? "&#10;" : "&#9;"); //$NON-NLS-1$ //$NON-NLS-2$
+						else
+							fBytes[fCount++]= (byte) c;
+					} else {
+						writeUTF8(REPLACEMENT_CHAR);
+					}
+				} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(chars[i + 1])) {
+					int codePoint= Character.toCodePoint(c, chars[++i]);
+					fBytes[fCount++]= (byte) (0xF0 | codePoint >> 18);
+					fBytes[fCount++]= (byte) (0x80 | codePoint >> 12 & 0x3F);
+					fBytes[fCount++]= (byte) (0x80 | codePoint >> 6 & 0x3F);
+					fBytes[fCount++]= (byte) (0x80 | codePoint & 0x3F);
+				} else if ((c >= '\uD800' && c <= '\uDFFF') || c == '\uFFFE' || c == '\uFFFF') {
+					writeUTF8(REPLACEMENT_CHAR);
+				} else {
+					writeUTF8(c);
+				}
+			}
+			start= end;
+		}
+	}
+
+	/**
+	 * Encodes a character of the Basic Multilingual Plane. The caller ensures
+	 * that the buffer has room for 3 bytes.
+	 *
+	 * @param c a character that is not a surrogate
+	 */
+	private void writeUTF8(char c) {
+		if (c < 0x80) {
+			fBytes[fCount++]= (byte) c;
+		} else if (c < 0x800) {
+			fBytes[fCount++]= (byte) (0xC0 | c >> 6);
+			fBytes[fCount++]= (byte) (0x80 | c & 0x3F);
+		} else {
+			fBytes[fCount++]= (byte) (0xE0 | c >> 12);
+			fBytes[fCount++]= (byte) (0x80 | c >> 6 & 0x3F);
+			fBytes[fCount++]= (byte) (0x80 | c & 0x3F);
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (fCount > 0) {
+			fOut.write(fBytes, 0, fCount);
+			fCount= 0;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+
+/**
+ * A single thread that multiplexes the connections of all
+ * {@link NioTestRunnerClient}s with one {@link Selector}.
+ */
+final class TestRunnerSelector implements Runnable {
+
+	private static TestRunnerSelector fgDefault;
+
+	private final Selector fSelector;
+	/**
+	 * Server channels that have to be registered by the selector thread.
+	 */
+	private final List/*<PendingRegistration>*/ fPendingRegistrations= new ArrayList();
+	/**
+	 * Clients whose termination has to be notified by the selector thread.
+	 */
+	private final List/*<NioTestRunnerClient>*/ fPendingTerminations= new ArrayList();
+	/**
+	 * Clients that have queued messages, which the selector thread has to write.
+	 */
+	private final List/*<NioTestRunnerClient>*/ fPendingWrites= new ArrayList();
+
+	private static class PendingRegistration {
+		final ServerSocketChannel fServerChannel;
+		final NioTestRunnerClient fClient;
+
+		PendingRegistration(ServerSocketChannel serverChannel, NioTestRunnerClient client) {
+			fServerChannel= serverChannel;
+			fClient= client;
+		}
+	}
+
+	/**
+	 * @return the shared selector, started on first access
+	 * @throws IOException if the selector could not be opened
+	 */
+	public static synchronized TestRunnerSelector getDefault() throws IOException {
+		if (fgDefault == null) {
+			fgDefault= new TestRunnerSelector();
+		}
+		return fgDefault;
+	}
+
+	private TestRunnerSelector() throws IOException {
+		fSelector= Selector.open();
+		Thread thread= new Thread(this, "TestRunnerSelector"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts accepting a connection on the given (non-blocking) server channel.
+	 *
+	 * @param serverChannel the bound server channel
+	 * @param client the client that handles the connection
+	 */
+	public void register(ServerSocketChannel serverChannel, NioTestRunnerClient client) {
+		synchronized (fPendingRegistrations) {
+			fPendingRegistrations.add(new PendingRegistration(serverChannel, client));
+		}
+		fSelector.wakeup();
+	}
+
+	/**
+	 * Notifies the termination of a client's test run in the selector thread.
+	 *
+	 * @param client the client, which has been shut down
+	 */
+	public void terminate(NioTestRunnerClient client) {
+		synchronized (fPendingRegistrations) {
+			fPendingTerminations.add(client);
+		}
+		fSelector.wakeup();
+	}
+
+	/**
+	 * Writes the queued messages of a client in the selector thread.
+	 *
+	 * @param client the client
+	 */
+	public void write(NioTestRunnerClient client) {
+		synchronized (fPendingRegistrations) {
+			fPendingWrites.add(client);
+		}
+		fSelector.wakeup();
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				fSelector.select();
+				processPending();
+				Iterator iter= fSelector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key= (SelectionKey) iter.next();
+					iter.remove();
+					handle(key);
+				}
+			}
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+		} finally {
+			synchronized (TestRunnerSelector.class) {
+				fgDefault= null;
+			}
+		}
+	}
+
+	private void processPending() {
+		PendingRegistration[] pending;
+		NioTestRunnerClient[] terminated;
+		NioTestRunnerClient[] writing;
+		synchronized (fPendingRegistrations) {
+			pending= (PendingRegistration[]) fPendingRegistrations.toArray(new PendingRegistration[fPendingRegistrations.size()]);
+			fPendingRegistrations.clear();
+			terminated= (NioTestRunnerClient[]) fPendingTerminations.toArray(new NioTestRunnerClient[fPendingTerminations.size()]);
+			fPendingTerminations.clear();
+			writing= (NioTestRunnerClient[]) fPendingWrites.toArray(new NioTestRunnerClient[fPendingWrites.size()]);
+			fPendingWrites.clear();
+		}
+		for (int i= 0; i < pending.length; i++) {
+			try {
+				pending[i].fServerChannel.register(fSelector, SelectionKey.OP_ACCEPT, pending[i].fClient);
+			} catch (ClosedChannelException e) {
+				// stopWaiting() was called before the channel got registered
+			}
+		}
+		for (int i= 0; i < writing.length; i++) {
+			writing[i].enableWrite();
+		}
+		for (int i= 0; i < terminated.length; i++) {
+			terminated[i].terminate();
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		NioTestRunnerClient client= (NioTestRunnerClient) key.attachment();
+		try {
+			if (key.isAcceptable()) {
+				client.handleAccept(fSelector);
+			} else {
+				if (key.isWritable())
+					client.handleWrite();
+				if (key.isValid() && key.isReadable())
+					client.handleRead();
+			}
+		} catch (CancelledKeyException e) {
+			// connection has been shut down concurrently
+		} catch (RuntimeException e) {
+			// don't let one broken session kill the connections of all other sessions
+			JUnitPlugin.log(e);
+			client.terminate();
+		}
+	}
+}
@@ -11,8 +11,7 @@
 
 package org.eclipse.jdt.internal.junit.model;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.eclipse.jdt.junit.model.ITestElement;
 import org.eclipse.jdt.junit.model.ITestSuiteElement;
@@ -20,12 +19,24 @@ import org.eclipse.jdt.junit.model.ITestSuiteElement;
 
 public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 
-	private List/*<TestElement>*/ fChildren;
+	private static final TestElement[] NO_CHILDREN= new TestElement[0];
+
+	/**
+	 * The children. Only the first {@link #fChildrenCount} elements are valid.
+	 * Children are only added by the thread that builds the model; other
+	 * threads can iterate over the valid elements without copying them.
+	 */
+	private TestElement[] fChildren;
+	private volatile int fChildrenCount;
 	private Status fChildrenStatus;
+	/**
+	 * Number of children per {@link Status#ordinal() status}.
+	 */
+	private final int[] fChildrenStatusCounts= new int[Status.COUNT];
 
 	public TestSuiteElement(TestSuiteElement parent, String id, String testName, int childrenCount) {
 		super(parent, id, testName);
-		fChildren= new ArrayList(childrenCount);
+		fChildren= childrenCount > 0 ? new TestElement[childrenCount] : NO_CHILDREN;
 	}
 
 	/* (non-Javadoc)
@@ -50,11 +61,54 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 	 * @see org.eclipse.jdt.junit.model.ITestSuiteElement#getChildren()
 	 */
 	public ITestElement[] getChildren() {
-		return (ITestElement[]) fChildren.toArray(new ITestElement[fChildren.size()]);
+		loadChildren();
+		int count= fChildrenCount;
+		ITestElement[] children= new ITestElement[count];
+		System.arraycopy(fChildren, 0, children, 0, count);
+		return children;
+	}
+
+	/**
+	 * @return the number of children. Children that have been swapped to disk
+	 * 	are counted without reading them.
+	 */
+	public int getChildCount() {
+		if (hasFlag(FLAG_CHILDREN_SWAPPED)) {
+			int count= getRoot().getSwappedChildCount(this);
+			if (count != -1)
+				return count;
+		}
+		loadChildren();
+		return fChildrenCount;
+	}
+
+	/**
+	 * @param index the index, <code>0 &lt;= index &lt; getChildCount()</code>
+	 * @return the child at the given index
+	 */
+	public TestElement getChild(int index) {
+		loadChildren();
+		return fChildren[index];
+	}
+
+	/**
+	 * Reads the children from the swap file if they have not been read yet.
+	 */
+	private void loadChildren() {
+		if (hasFlag(FLAG_CHILDREN_SWAPPED))
+			getRoot().loadChildren(this);
 	}
 
 	public void addChild(TestElement child) {
-		fChildren.add(child);
+		int count= fChildrenCount;
+		if (count == fChildren.length) {
+			TestElement[] children= new TestElement[Math.max(4, 2 * count)];
+			System.arraycopy(fChildren, 0, children, 0, count);
+			fChildren= children;
+		}
+		fChildren[count]= child;
+		fChildrenStatusCounts[child.getStatus().ordinal()]++;
+		fChildrenCount= count + 1; // publishes the child
 	}
 
 	public Status getStatus() {
@@ -67,35 +121,59 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 		}
 	}
 
+	/**
+	 * Computes the status that {@link Status#combineStatus(Status, Status)}
+	 * would yield for all children, from the per-status counters.
+	 *
+	 * @return the cumulated status of the children
+	 */
 	private Status getCumulatedStatus() {
-		TestElement[] children= (TestElement[]) fChildren.toArray(new TestElement[fChildren.size()]); // copy list to avoid concurreny problems
-		if (children.length == 0)
+		int count= fChildrenCount;
+		if (count == 0)
 			return getSuiteStatus();
 
-		Status cumulated= children[0].getStatus();
+		int[] counts= fChildrenStatusCounts;
+		boolean error= counts[Status.ERROR.ordinal()] + counts[Status.RUNNING_ERROR.ordinal()] > 0;
+		boolean failure= counts[Status.FAILURE.ordinal()] + counts[Status.RUNNING_FAILURE.ordinal()] > 0;
 
-		for (int i= 1; i < children.length; i++) {
-			Status childStatus= children[i].getStatus();
-			cumulated= Status.combineStatus(cumulated, childStatus);
+		if (counts[Status.RUNNING.ordinal()] + counts[Status.RUNNING_ERROR.ordinal()] + counts[Status.RUNNING_FAILURE.ordinal()] > 0) {
+			if (error)
+				return Status.RUNNING_ERROR;
+			if (failure)
+				return Status.RUNNING_FAILURE;
+			return Status.RUNNING;
 		}
-		// not necessary, see special code in Status.combineProgress()
-//		if (suiteStatus.isErrorOrFailure() && cumulated.isNotRun())
-//			return suiteStatus; //progress is Done if error in Suite and no children run
-		return cumulated;
+		if (counts[Status.NOT_RUN.ordinal()] == count)
+			return Status.NOT_RUN;
+		// one done, one not-run -> a parent failed and its children are not run, see Status.combineProgress()
+		if (error)
+			return Status.ERROR;
+		if (failure)
+			return Status.FAILURE;
+		return Status.OK;
 	}
 
 	public Status getSuiteStatus() {
 		return super.getStatus();
 	}
 
-	public void childChangedStatus(TestElement child, Status childStatus) {
-		int childCount= fChildren.size();
-		if (child == fChildren.get(0) && childStatus.isRunning()) {
+	/**
+	 * @param child the child whose status has changed
+	 * @param oldStatus the child's previous status
+	 * @param childStatus the child's new status
+	 */
+	public void childChangedStatus(TestElement child, Status oldStatus, Status childStatus) {
+		fChildrenStatusCounts[oldStatus.ordinal()]--;
+		fChildrenStatusCounts[childStatus.ordinal()]++;
+
+		int childCount= fChildrenCount;
+		TestElement[] children= fChildren;
+		if (child == children[0] && childStatus.isRunning()) {
 			// is first child, and is running -> copy status
 			internalSetChildrenStatus(childStatus);
 			return;
 		}
-		TestElement lastChild= (TestElement) fChildren.get(childCount - 1);
+		TestElement lastChild= children[childCount - 1];
 		if (child == lastChild) {
 			if (childStatus.isDone()) {
 				// all children done, collect cumulative status
@@ -124,31 +202,63 @@ public class TestSuiteElement extends TestElement implements ITestSuiteElement {
 		}
 	}
 
+	/**
+	 * @return the cumulated status of the children as last computed, or <code>null</code>
+	 */
+	Status getChildrenStatus() {
+		return fChildrenStatus;
+	}
+
+	/**
+	 * Sets the cumulated status of the children without notifying the parent,
+	 * and recounts the status of the children.
+	 *
+	 * @param childrenStatus the status, as returned by {@link #getChildrenStatus()}
+	 * @see TestElement#restoreState(byte, int)
+	 */
+	void restoreChildrenStatus(Status childrenStatus) {
+		fChildrenStatus= childrenStatus;
+		int[] counts= fChildrenStatusCounts;
+		Arrays.fill(counts, 0);
+		int count= fChildrenCount;
+		for (int i= 0; i < count; i++)
+			counts[fChildren[i].getStatus().ordinal()]++;
+	}
+
+	/**
+	 * Recounts the status of the children and sets their cumulated status
+	 * without notifying the parent. Used for suites whose children have been
+	 * added with their final status.
+	 */
+	void restoreCumulatedStatus() {
+		restoreChildrenStatus(null);
+		if (fChildrenCount > 0)
+			fChildrenStatus= getCumulatedStatus();
+	}
+
 	private void internalSetChildrenStatus(Status status) {
 		if (fChildrenStatus == status)
 			return;
 
 		if (status == Status.RUNNING) {
-			if (fTime >= 0.0d) {
+			if (hasElapsedTime()) {
 				// re-running child: ignore change
 			} else {
-				fTime= - System.currentTimeMillis() / 1000d;
+				startTime();
 			}
 		} else if (status.convertToProgressState() == ProgressState.COMPLETED) {
-			if (fTime < 0) { // assert ! Double.isNaN(fTime)
-				double endTime= System.currentTimeMillis() / 1000d;
-				fTime= endTime + fTime;
-			}
+			stopTime();
 		}
 
+		Status oldStatus= getStatus();
 		fChildrenStatus= status;
 		TestSuiteElement parent= getParent();
 		if (parent != null)
-			parent.childChangedStatus(this, getStatus());
+			parent.childChangedStatus(this, oldStatus, getStatus());
 	}
 
 	public String toString() {
-		return "TestSuite: " + getSuiteTypeName() + " : " + super.toString() + " (" + fChildren.size() + ")";   //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return "TestSuite: " + getSuiteTypeName() + " : " + super.toString() + " (" + fChildrenCount + ")";   //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 	}
 
 }
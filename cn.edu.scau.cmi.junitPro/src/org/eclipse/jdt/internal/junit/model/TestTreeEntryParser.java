@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+/**
+ * Parses the tree entries sent with {@link ITestRunListener2#testTreeEntry(String)}.
+ * <p>
+ * Format: <code>testId","testName","isSuite","testcount</code>, where ',' and
+ * '\' in the test name are escaped with a '\'.
+ * </p>
+ * <p>
+ * The parser walks the entry once with a cursor. The unescaped test name is
+ * collected in a buffer that is reused for all entries, and the test count is
+ * parsed in place, so an entry only costs the id and the name strings. After
+ * {@link #parse(String)}, the fields of the entry are available until the next
+ * call. Not thread-safe.
+ * </p>
+ */
+class TestTreeEntryParser {
+
+	private static final String TRUE= "true"; //$NON-NLS-1$
+
+	private char[] fBuffer= new char[128];
+
+	private String fId;
+	private String fTestName;
+	private boolean fIsSuite;
+	private int fTestCount;
+
+	/**
+	 * @param treeEntry the tree entry
+	 * @throws IllegalArgumentException if the entry is malformed
+	 */
+	public void parse(String treeEntry) {
+		int length= treeEntry.length();
+
+		int index0= treeEntry.indexOf(',');
+		if (index0 == -1)
+			throw malformed(treeEntry);
+		fId= treeEntry.substring(0, index0);
+
+		int index1= scanTestName(treeEntry, index0 + 1);
+		if (index1 == length)
+			throw malformed(treeEntry);
+
+		int index2= treeEntry.indexOf(',', index1 + 1);
+		if (index2 == -1)
+			throw malformed(treeEntry);
+		fIsSuite= index2 - index1 - 1 == TRUE.length() && treeEntry.startsWith(TRUE, index1 + 1);
+
+		fTestCount= parseInt(treeEntry, index2 + 1, length);
+	}
+
+	/**
+	 * Unescapes and trims the test name starting at <code>start</code> into
+	 * {@link #fTestName}.
+	 *
+	 * @param s the string to scan
+	 * @param start the offset of the first character of the test name
+	 * @return the index of the next ',', or the length of <code>s</code>
+	 */
+	private int scanTestName(String s, int start) {
+		int length= s.length();
+		if (fBuffer.length < length - start)
+			fBuffer= new char[Math.max(length - start, 2 * fBuffer.length)];
+		char[] buffer= fBuffer;
+		int count= 0;
+		int end= 0; // end of the name without trailing white space
+		boolean inQuote= false;
+		int i= start;
+		for (; i < length; i++) {
+			char c= s.charAt(i);
+			if (c == '\\' && !inQuote) {
+				inQuote= true;
+				continue;
+			} else if (inQuote) {
+				inQuote= false;
+			} else if (c == ',') {
+				break;
+			}
+			if (count == 0 && c <= ' ')
+				continue; // leading white space, see String#trim()
+			buffer[count++]= c;
+			if (c > ' ')
+				end= count;
+		}
+		fTestName= new String(buffer, 0, end);
+		return i;
+	}
+
+	/**
+	 * Parses a decimal <code>int</code> like {@link Integer#parseInt(String)}.
+	 *
+	 * @param s the string
+	 * @param start the offset of the first character
+	 * @param end the offset after the last character
+	 * @return the value
+	 * @throws NumberFormatException if the characters are not an <code>int</code>
+	 */
+	private static int parseInt(String s, int start, int end) {
+		int i= start;
+		boolean negative= false;
+		if (i < end) {
+			char first= s.charAt(i);
+			if (first == '-' || first == '+') {
+				negative= first == '-';
+				i++;
+			}
+		}
+		if (i == end)
+			throw new NumberFormatException(s.substring(start, end));
+		long result= 0;
+		for (; i < end; i++) {
+			int digit= s.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException(s.substring(start, end));
+			result= result * 10 + digit;
+			if (result > Integer.MAX_VALUE + 1L)
+				throw new NumberFormatException(s.substring(start, end));
+		}
+		if (negative)
+			result= -result;
+		if (result > Integer.MAX_VALUE)
+			throw new NumberFormatException(s.substring(start, end));
+		return (int) result;
+	}
+
+	private static IllegalArgumentException malformed(String treeEntry) {
+		return new IllegalArgumentException("Malformed test tree entry: " + treeEntry); //$NON-NLS-1$
+	}
+
+	/**
+	 * @return the test id of the last parsed entry
+	 */
+	public String getId() {
+		return fId;
+	}
+
+	/**
+	 * @return the unescaped and trimmed test name of the last parsed entry
+	 */
+	public String getTestName() {
+		return fTestName;
+	}
+
+	/**
+	 * @return whether the last parsed entry is a suite
+	 */
+	public boolean isSuite() {
+		return fIsSuite;
+	}
+
+	/**
+	 * @return the test count of the last parsed entry
+	 */
+	public int getTestCount() {
+		return fTestCount;
+	}
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jdt.internal.junit.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.eclipse.jdt.internal.junit.model.TestElement.FailureData;
+import org.eclipse.jdt.internal.junit.ui.JUnitPlugin;
+import org.eclipse.jdt.internal.junit.ui.JUnitPreferencesConstants;
+
+/**
+ * Keeps the failure traces of a test tree.
+ * <p>
+ * Only the traces of the most recently stored or read {@link FailureData}s are
+ * kept in memory. Older traces are appended to a file of the session and read
+ * back when they are requested again. The file is deleted when the store is
+ * closed. Files of stores that have not been closed, e.g. after a crash, are
+ * deleted when the {@link TestRunHistory} is loaded on the next startup.
+ * </p>
+ * <p>
+ * Thread-safe: traces are stored by the thread that updates the model and read
+ * by the UI.
+ * </p>
+ *
+ * @see JUnitPreferencesConstants#MAX_TRACES_IN_MEMORY
+ */
+class TraceStore {
+
+	private static final int DEFAULT_MAX_TRACES_IN_MEMORY= 1000;
+	private static final String ENCODING= "UTF-8"; //$NON-NLS-1$
+
+	private final int fMaxTracesInMemory;
+	/**
+	 * Failure data with a trace in memory, least recently accessed first.
+	 */
+	private final LinkedHashMap/*<FailureData, FailureData>*/ fRecent= new LinkedHashMap(16, 0.75f, true);
+	/**
+	 * Number of characters of the traces in memory.
+	 */
+	private long fCharsInMemory;
+
+	private File fFile;
+	private RandomAccessFile fAccess;
+	private long fFileLength;
+	/**
+	 * <code>true</code> if writing to the file failed or the store is closed;
+	 * traces are then kept in memory.
+	 */
+	private boolean fSpillDisabled;
+
+	public TraceStore() {
+		this(getMaxTracesInMemory());
+	}
+
+	/**
+	 * @param maxTracesInMemory the number of traces to keep in memory
+	 */
+	TraceStore(int maxTracesInMemory) {
+		fMaxTracesInMemory= Math.max(1, maxTracesInMemory);
+	}
+
+	private static int getMaxTracesInMemory() {
+		JUnitPlugin plugin= JUnitPlugin.getDefault();
+		if (plugin == null)
+			return DEFAULT_MAX_TRACES_IN_MEMORY;
+		int max= plugin.getPreferenceStore().getInt(JUnitPreferencesConstants.MAX_TRACES_IN_MEMORY);
+		return max > 0 ? max : DEFAULT_MAX_TRACES_IN_MEMORY;
+	}
+
+	/**
+	 * Stores the trace of new failure data.
+	 *
+	 * @param failureData the failure data
+	 * @param trace the trace, or <code>null</code>
+	 */
+	public synchronized void put(FailureData failureData, String trace) {
+		failureData.fTrace= trace;
+		if (trace != null) {
+			fCharsInMemory+= trace.length();
+			addRecent(failureData);
+		}
+	}
+
+	/**
+	 * @param failureData the failure data
+	 * @return the trace of the failure data, or <code>null</code> if it has
+	 *         none or the trace could not be read
+	 */
+	public synchronized String get(FailureData failureData) {
+		String trace= failureData.fTrace;
+		if (trace != null) {
+			fRecent.get(failureData); // accessed
+			return trace;
+		}
+		if (failureData.fTraceOffset == -1)
+			return null;
+		if (fAccess == null)
+			return null; // closed
+		try {
+			byte[] bytes= new byte[failureData.fTraceLength];
+			fAccess.seek(failureData.fTraceOffset);
+			fAccess.readFully(bytes);
+			trace= new String(bytes, ENCODING);
+		} catch (IOException e) {
+			JUnitPlugin.log(e);
+			return null;
+		}
+		failureData.fTrace= trace;
+		fCharsInMemory+= trace.length();
+		addRecent(failureData);
+		return trace;
+	}
+
+	/**
+	 * Releases the trace of failure data that has been replaced. Its trace is
+	 * not written to the file any more.
+	 *
+	 * @param failureData the failure data
+	 */
+	public synchronized void remove(FailureData failureData) {
+		if (fRecent.remove(failureData) != null) {
+			fCharsInMemory-= failureData.fTrace.length();
+			failureData.fTrace= null;
+		}
+	}
+
+	private void addRecent(FailureData failureData) {
+		fRecent.put(failureData, failureData);
+		Iterator iter= fRecent.keySet().iterator();
+		while (fRecent.size() > fMaxTracesInMemory) {
+			FailureData evicted= (FailureData) iter.next();
+			iter.remove();
+			spill(evicted);
+		}
+	}
+
+	private void spill(FailureData failureData) {
+		if (failureData.fTraceOffset == -1) {
+			if (fSpillDisabled)
+				return;
+			try {
+				byte[] bytes= failureData.fTrace.getBytes(ENCODING);
+				RandomAccessFile access= getAccess();
+				access.seek(fFileLength);
+				access.write(bytes);
+				failureData.fTraceOffset= fFileLength;
+				failureData.fTraceLength= bytes.length;
+				fFileLength+= bytes.length;
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.getMessage()); // UTF-8 is always supported
+			} catch (IOException e) {
+				JUnitPlugin.log(e);
+				fSpillDisabled= true;
+				return;
+			}
+		}
+		fCharsInMemory-= failureData.fTrace.length();
+		failureData.fTrace= null;
+	}
+
+	/**
+	 * @return the number of characters of the traces that are kept in memory
+	 */
+	public synchronized long getCharsInMemory() {
+		return fCharsInMemory;
+	}
+
+	private RandomAccessFile getAccess() throws IOException {
+		if (fAccess == null) {
+			fFile= File.createTempFile("traces", ".tmp", getDirectory()); //$NON-NLS-1$ //$NON-NLS-2$
+			fAccess= new RandomAccessFile(fFile, "rw"); //$NON-NLS-1$
+		}
+		return fAccess;
+	}
+
+	/**
+	 * @return the directory for the file, or <code>null</code> for the default temporary directory
+	 */
+	private static File getDirectory() {
+		if (JUnitPlugin.getDefault() == null)
+			return null;
+		try {
+			return JUnitPlugin.getHistoryDirectory();
+		} catch (IllegalStateException e) {
+			return null; // no instance location
+		}
+	}
+
+	/**
+	 * Deletes the file. Traces that have been written to the file are lost.
+	 */
+	public synchronized void close() {
+		fSpillDisabled= true;
+		if (fAccess != null) {
+			try {
+				fAccess.close();
+			} catch (IOException e) {
+				JUnitPlugin.log(e);
+			}
+			fAccess= null;
+			fFile.delete();
+		}
+	}
+}
@@ -33,6 +33,15 @@ public class CounterPanel extends Composite {
 	protected int fTotal;
 	protected int fIgnoredCount;
 
+	/*
+	 * The values that are shown, or -1 if the initial text is shown.
+	 * Unchanged values are not set again, to avoid needless redraws.
+	 */
+	private int fShownRunCount= -1;
+	private int fShownTotal= -1;
+	private int fShownErrorCount= -1;
+	private int fShownFailureCount= -1;
+
 	private final Image fErrorIcon= JUnitPlugin.createImage("ovr16/error_ovr.gif"); //$NON-NLS-1$
 	private final Image fFailureIcon= JUnitPlugin.createImage("ovr16/failed_ovr.gif"); //$NON-NLS-1$
 
@@ -97,6 +106,11 @@ public class CounterPanel extends Composite {
 	}
 
 	public void setRunValue(int value, int ignoredCount) {
+		if (value == fShownRunCount && fTotal == fShownTotal && ignoredCount == fIgnoredCount)
+			return;
+		fShownRunCount= value;
+		fShownTotal= fTotal;
+
 		String runString;
 		if (ignoredCount == 0)
 			runString= Messages.format(JUnitMessages.CounterPanel_runcount, new String[] { Integer.toString(value), Integer.toString(fTotal) });
@@ -114,11 +128,17 @@ public class CounterPanel extends Composite {
 	}
 
 	public void setErrorValue(int value) {
+		if (value == fShownErrorCount)
+			return;
+		fShownErrorCount= value;
 		fNumberOfErrors.setText(Integer.toString(value));
 		redraw();
 	}
 
 	public void setFailureValue(int value) {
+		if (value == fShownFailureCount)
+			return;
+		fShownFailureCount= value;
 		fNumberOfFailures.setText(Integer.toString(value));
 		redraw();
 	}
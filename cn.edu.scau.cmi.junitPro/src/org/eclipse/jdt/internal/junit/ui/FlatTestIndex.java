@@ -0,0 +1,554 @@
+/*******************************************************************************
+ * Copyright (c) 2009 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.jdt.internal.junit.ui;
+
+import org.eclipse.jface.viewers.ViewerFilter;
+
+import org.eclipse.core.runtime.Assert;
+
+import org.eclipse.jdt.internal.junit.model.TestCaseElement;
+import org.eclipse.jdt.internal.junit.model.TestElement;
+import org.eclipse.jdt.internal.junit.model.TestRoot;
+import org.eclipse.jdt.internal.junit.model.TestSuiteElement;
+
+/**
+ * The rows of the flat layout of the test viewer: the test cases and the
+ * suites that failed themselves, in tree order. The rows that are shown
+ * with "failures only" and the rows of the failed test cases are kept in
+ * sorted lists, so that the next or previous failure is found by binary
+ * search, see {@link #getFailedTest(TestElement, boolean)}.
+ * <p>
+ * Tests are added to a test run in tree order, so the index follows the
+ * test tree with a cursor and appends the tests that are added after the
+ * last row. Status changes insert or remove rows of the failure list. Tests
+ * that are added out of order and suites that fail after their tests have
+ * been added make the index invalid, and it is rebuilt from the tree when
+ * it is {@link #validate(TestRoot, boolean) used} the next time.
+ * </p>
+ * <p>
+ * Only used in the UI thread.
+ * </p>
+ */
+final class FlatTestIndex {
+
+	private static final TestElement[] NO_ELEMENTS= new TestElement[0];
+	private static final int[] NO_ROWS= new int[0];
+	private static final int INITIAL_CAPACITY= 64;
+	private static final int INITIAL_DEPTH= 8;
+
+	/**
+	 * A sorted list of rows.
+	 */
+	private static final class RowList {
+		int[] fRows= NO_ROWS;
+		int fCount;
+
+		void clear() {
+			fRows= NO_ROWS;
+			fCount= 0;
+		}
+
+		void append(int row) {
+			ensureCapacity();
+			fRows[fCount++]= row;
+		}
+
+		/**
+		 * Inserts or removes a row.
+		 *
+		 * @param row the row
+		 * @param contained whether the list has to contain the row
+		 * @return the index at which the row has been inserted or removed,
+		 * 	or {@link Integer#MAX_VALUE} if the list is unchanged or the row has been appended
+		 */
+		int update(int row, boolean contained) {
+			int index= binarySearch(row);
+			if (contained && index < 0) {
+				index= -index - 1;
+				if (index == fCount) {
+					append(row);
+					return Integer.MAX_VALUE;
+				}
+				ensureCapacity();
+				System.arraycopy(fRows, index, fRows, index + 1, fCount - index);
+				fRows[index]= row;
+				fCount++;
+				return index;
+			} else if (! contained && index >= 0) {
+				System.arraycopy(fRows, index + 1, fRows, index, fCount - index - 1);
+				fCount--;
+				return index;
+			}
+			return Integer.MAX_VALUE;
+		}
+
+		private void ensureCapacity() {
+			if (fCount == fRows.length) {
+				int[] rows= new int[Math.max(INITIAL_CAPACITY, 2 * fCount)];
+				System.arraycopy(fRows, 0, rows, 0, fCount);
+				fRows= rows;
+			}
+		}
+
+		/**
+		 * @param row the row
+		 * @return the index of the first row in the list that is greater or equal
+		 * 	to the given row, or the size of the list if there is none
+		 */
+		int ceiling(int row) {
+			int index= binarySearch(row);
+			return index >= 0 ? index : -index - 1;
+		}
+
+		int binarySearch(int row) {
+			int low= 0;
+			int high= fCount - 1;
+			while (low <= high) {
+				int mid= (low + high) >>> 1;
+				int midRow= fRows[mid];
+				if (midRow < row)
+					low= mid + 1;
+				else if (midRow > row)
+					high= mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+	}
+
+	private final ViewerFilter fFailuresFilter;
+
+	/**
+	 * The indexed test tree, or <code>null</code> if the index is invalid.
+	 */
+	private TestRoot fTestRoot;
+	private boolean fRunning;
+
+	private TestElement[] fRows= NO_ELEMENTS;
+	private int fRowCount;
+
+	/**
+	 * Hash table from elements to their row, with identity hash codes and
+	 * linear probing. The length is a power of 2.
+	 */
+	private TestElement[] fKeys= NO_ELEMENTS;
+	private int[] fKeyRows= NO_ROWS;
+
+	/**
+	 * The rows that pass the failures filter.
+	 */
+	private final RowList fFailureRows= new RowList();
+	/**
+	 * The rows of the test cases that have an error or a failure.
+	 */
+	private final RowList fFailedTestRows= new RowList();
+
+	/*
+	 * The cursor: the path from the test root to the last node that has been
+	 * visited in tree order. fPathSuites[i].getChild(fPathIndexes[i]) is the
+	 * node at depth i + 1, and -1 means that no child has been visited yet.
+	 */
+	private TestSuiteElement[] fPathSuites= new TestSuiteElement[INITIAL_DEPTH];
+	private int[] fPathIndexes= new int[INITIAL_DEPTH];
+	private int fDepth;
+
+	/*
+	 * The first row and the first failure row that have changed, other than
+	 * by appending, see #takeFirstChange(boolean).
+	 */
+	private int fFirstChangedRow= Integer.MAX_VALUE;
+	private int fFirstChangedFailure= Integer.MAX_VALUE;
+
+	/**
+	 * @param failuresFilter the filter for the rows that are shown with "failures only".
+	 * 	It is called with a <code>null</code> viewer.
+	 */
+	public FlatTestIndex(ViewerFilter failuresFilter) {
+		fFailuresFilter= failuresFilter;
+	}
+
+	/**
+	 * Marks the index invalid and releases the rows.
+	 */
+	public void invalidate() {
+		fTestRoot= null;
+		fRows= NO_ELEMENTS;
+		fRowCount= 0;
+		fKeys= NO_ELEMENTS;
+		fKeyRows= NO_ROWS;
+		fFailureRows.clear();
+		fFailedTestRows.clear();
+		fDepth= 0;
+		for (int i= 0; i < fPathSuites.length; i++)
+			fPathSuites[i]= null;
+	}
+
+	/**
+	 * @return <code>true</code> iff the index follows a test tree
+	 */
+	public boolean isValid() {
+		return fTestRoot != null;
+	}
+
+	/**
+	 * Rebuilds the index if it is invalid or indexes another test tree.
+	 *
+	 * @param testRoot the test tree
+	 * @param running whether the test run session is running
+	 */
+	public void validate(TestRoot testRoot, boolean running) {
+		Assert.isNotNull(testRoot);
+		if (fTestRoot == testRoot)
+			return;
+		invalidate();
+		fTestRoot= testRoot;
+		fRunning= running;
+		fRows= new TestElement[INITIAL_CAPACITY];
+		fKeys= new TestElement[INITIAL_CAPACITY];
+		fKeyRows= new int[INITIAL_CAPACITY];
+		fPathSuites[0]= testRoot;
+		fPathIndexes[0]= -1;
+		fDepth= 1;
+		while (nextTestCase() != null) {
+			// appends all rows
+		}
+		fFirstChangedRow= 0;
+		fFirstChangedFailure= 0;
+	}
+
+	/**
+	 * Appends tests that have been added to the tree. Does nothing if the index is invalid.
+	 *
+	 * @param added the added elements, in the order in which they have been added
+	 */
+	public void testsAdded(Object[] added) {
+		for (int i= 0; i < added.length && isValid(); i++) {
+			if (added[i] instanceof TestCaseElement && getRow((TestElement) added[i]) == -1) {
+				if (nextTestCase() != added[i])
+					invalidate(); // not added in tree order
+			}
+		}
+	}
+
+	/**
+	 * Updates the failure rows after the status of elements has changed.
+	 * Does nothing if the index is invalid.
+	 *
+	 * @param changed the changed elements
+	 * @param running whether the test run session is running
+	 */
+	public void testsChanged(Object[] changed, boolean running) {
+		if (! isValid())
+			return;
+		if (running != fRunning) {
+			// the filter shows tests that are rerun after the test run has ended
+			fRunning= running;
+			fFailureRows.clear();
+			for (int row= 0; row < fRowCount; row++) {
+				if (isFailure(fRows[row]))
+					fFailureRows.append(row);
+			}
+			fFirstChangedFailure= 0;
+		}
+		for (int i= 0; i < changed.length; i++) {
+			TestElement element= (TestElement) changed[i];
+			int row= getRow(element);
+			if (element instanceof TestSuiteElement && isFailedSuite((TestSuiteElement) element) != (row != -1)) {
+				invalidate(); // a suite row has to be inserted or removed
+				return;
+			}
+			if (row != -1) {
+				int index= fFailureRows.update(row, isFailure(element));
+				fFirstChangedFailure= Math.min(fFirstChangedFailure, index);
+				fFailedTestRows.update(row, isFailedTest(element));
+			}
+		}
+	}
+
+	/**
+	 * @param failures <code>true</code> for the failure rows, <code>false</code> for all rows
+	 * @return the number of rows
+	 */
+	public int size(boolean failures) {
+		return failures ? fFailureRows.fCount : fRowCount;
+	}
+
+	/**
+	 * @param failures <code>true</code> for the failure rows, <code>false</code> for all rows
+	 * @param index the index, <code>0 &lt;= index &lt; size(failures)</code>
+	 * @return the element in the row
+	 */
+	public TestElement get(boolean failures, int index) {
+		return fRows[failures ? fFailureRows.fRows[index] : index];
+	}
+
+	/**
+	 * @param failures <code>true</code> for the failure rows, <code>false</code> for all rows
+	 * @param element the element
+	 * @return the index of the element, or -1 if the element is not in the rows
+	 */
+	public int indexOf(boolean failures, TestElement element) {
+		int row= getRow(element);
+		if (! failures || row == -1)
+			return row;
+		int index= fFailureRows.binarySearch(row);
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * Finds the next or previous test case that has an error or a failure, in
+	 * tree order. The failures in a suite come next after the suite and before
+	 * the elements that follow it.
+	 *
+	 * @param element the element to start from, or <code>null</code> to find
+	 * 	the first or the last failed test
+	 * @param next <code>true</code> for the next, <code>false</code> for the previous failed test
+	 * @return the failed test, or <code>null</code> if there is none or the index is invalid
+	 */
+	public TestCaseElement getFailedTest(TestElement element, boolean next) {
+		if (! isValid())
+			return null;
+		int index;
+		if (element == null) {
+			index= next ? 0 : fFailedTestRows.fCount - 1;
+		} else if (next) {
+			int row= getFirstRow(element);
+			if (row == -1)
+				row= getRowAfter(element);
+			else if (element instanceof TestCaseElement)
+				row++; // skips the test itself
+			index= fFailedTestRows.ceiling(row);
+		} else {
+			int row= getLastRow(element);
+			if (row == -1)
+				row= getRowBefore(element);
+			else if (element instanceof TestCaseElement)
+				row--;
+			index= fFailedTestRows.ceiling(row + 1) - 1;
+		}
+		if (index < 0 || index >= fFailedTestRows.fCount)
+			return null;
+		return (TestCaseElement) fRows[fFailedTestRows.fRows[index]];
+	}
+
+	/**
+	 * Returns the first index that has changed since the last call, other
+	 * than by appending rows, and resets the changes of both lists.
+	 *
+	 * @param failures <code>true</code> for the failure rows, <code>false</code> for all rows
+	 * @return the first changed index, or {@link Integer#MAX_VALUE} if
+	 * 	rows have only been appended
+	 */
+	public int takeFirstChange(boolean failures) {
+		int firstChange= failures ? fFirstChangedFailure : fFirstChangedRow;
+		fFirstChangedRow= Integer.MAX_VALUE;
+		fFirstChangedFailure= Integer.MAX_VALUE;
+		return firstChange;
+	}
+
+	/**
+	 * Moves the cursor to the next test case in tree order and appends the
+	 * rows of the failed suites on the way and of the test case.
+	 *
+	 * @return the test case, or <code>null</code> if the cursor has reached the end of the tree
+	 */
+	private TestCaseElement nextTestCase() {
+		while (true) {
+			TestSuiteElement suite= fPathSuites[fDepth - 1];
+			int next= fPathIndexes[fDepth - 1] + 1;
+			if (next >= suite.getChildCount()) {
+				if (fDepth == 1)
+					return null;
+				fDepth--;
+				continue;
+			}
+			fPathIndexes[fDepth - 1]= next;
+			TestElement child= suite.getChild(next);
+			if (child instanceof TestSuiteElement) {
+				TestSuiteElement childSuite= (TestSuiteElement) child;
+				if (isFailedSuite(childSuite))
+					appendRow(childSuite);
+				push(childSuite);
+			} else if (child instanceof TestCaseElement) {
+				appendRow(child);
+				return (TestCaseElement) child;
+			}
+		}
+	}
+
+	private void push(TestSuiteElement suite) {
+		if (fDepth == fPathSuites.length) {
+			TestSuiteElement[] suites= new TestSuiteElement[2 * fDepth];
+			System.arraycopy(fPathSuites, 0, suites, 0, fDepth);
+			fPathSuites= suites;
+			int[] indexes= new int[2 * fDepth];
+			System.arraycopy(fPathIndexes, 0, indexes, 0, fDepth);
+			fPathIndexes= indexes;
+		}
+		fPathSuites[fDepth]= suite;
+		fPathIndexes[fDepth]= -1;
+		fDepth++;
+	}
+
+	private void appendRow(TestElement element) {
+		if (fRowCount == fRows.length) {
+			TestElement[] rows= new TestElement[2 * fRowCount];
+			System.arraycopy(fRows, 0, rows, 0, fRowCount);
+			fRows= rows;
+		}
+		int row= fRowCount++;
+		fRows[row]= element;
+		putRow(element, row);
+		if (isFailure(element))
+			fFailureRows.append(row);
+		if (isFailedTest(element))
+			fFailedTestRows.append(row);
+	}
+
+	private static boolean isFailedSuite(TestSuiteElement suite) {
+		return suite.getSuiteStatus().isErrorOrFailure();
+	}
+
+	private boolean isFailure(TestElement element) {
+		return fFailuresFilter.select(null, element.getParent(), element);
+	}
+
+	private static boolean isFailedTest(TestElement element) {
+		return element instanceof TestCaseElement && element.getStatus().isErrorOrFailure();
+	}
+
+	/**
+	 * @param element the element
+	 * @return the first row of the element and its descendants, or -1 if none of them has a row
+	 */
+	private int getFirstRow(TestElement element) {
+		int row= getRow(element);
+		if (row != -1 || ! (element instanceof TestSuiteElement))
+			return row;
+		TestSuiteElement suite= (TestSuiteElement) element;
+		for (int i= 0, count= suite.getChildCount(); i < count; i++) {
+			row= getFirstRow(suite.getChild(i));
+			if (row != -1)
+				return row;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param element the element
+	 * @return the last row of the element and its descendants, or -1 if none of them has a row
+	 */
+	private int getLastRow(TestElement element) {
+		if (element instanceof TestSuiteElement) {
+			TestSuiteElement suite= (TestSuiteElement) element;
+			for (int i= suite.getChildCount() - 1; i >= 0; i--) {
+				int row= getLastRow(suite.getChild(i));
+				if (row != -1)
+					return row;
+			}
+		}
+		return getRow(element);
+	}
+
+	/**
+	 * Finds the first row after an element without rows, e.g. an empty suite.
+	 *
+	 * @param element the element
+	 * @return the first row after the element and its descendants, or the row count if there is none
+	 */
+	private int getRowAfter(TestElement element) {
+		for (TestSuiteElement parent= element.getParent(); parent != null; element= parent, parent= parent.getParent()) {
+			int count= parent.getChildCount();
+			for (int i= indexOfChild(parent, element) + 1; i < count; i++) {
+				int row= getFirstRow(parent.getChild(i));
+				if (row != -1)
+					return row;
+			}
+		}
+		return fRowCount;
+	}
+
+	/**
+	 * Finds the last row before an element without rows, e.g. an empty suite.
+	 *
+	 * @param element the element
+	 * @return the last row before the element, or -1 if there is none
+	 */
+	private int getRowBefore(TestElement element) {
+		for (TestSuiteElement parent= element.getParent(); parent != null; element= parent, parent= parent.getParent()) {
+			for (int i= indexOfChild(parent, element) - 1; i >= 0; i--) {
+				int row= getLastRow(parent.getChild(i));
+				if (row != -1)
+					return row;
+			}
+			int row= getRow(parent); // the row of a failed suite comes before its children
+			if (row != -1)
+				return row;
+		}
+		return -1;
+	}
+
+	private static int indexOfChild(TestSuiteElement suite, TestElement child) {
+		for (int i= 0, count= suite.getChildCount(); i < count; i++) {
+			if (suite.getChild(i) == child)
+				return i;
+		}
+		return -1;
+	}
+
+	private int getRow(TestElement element) {
+		if (fKeys.length == 0)
+			return -1;
+		int mask= fKeys.length - 1;
+		for (int i= hash(element) & mask; ; i= (i + 1) & mask) {
+			TestElement key= fKeys[i];
+			if (key == element)
+				return fKeyRows[i];
+			if (key == null)
+				return -1;
+		}
+	}
+
+	private void putRow(TestElement element, int row) {
+		if (4 * (fRowCount + 1) > 3 * fKeys.length)
+			rehash(2 * fKeys.length);
+		insert(fKeys, fKeyRows, element, row);
+	}
+
+	private void rehash(int capacity) {
+		TestElement[] keys= new TestElement[capacity];
+		int[] keyRows= new int[capacity];
+		for (int i= 0; i < fKeys.length; i++) {
+			if (fKeys[i] != null)
+				insert(keys, keyRows, fKeys[i], fKeyRows[i]);
+		}
+		fKeys= keys;
+		fKeyRows= keyRows;
+	}
+
+	private static void insert(TestElement[] keys, int[] keyRows, TestElement element, int row) {
+		int mask= keys.length - 1;
+		for (int i= hash(element) & mask; ; i= (i + 1) & mask) {
+			if (keys[i] == null || keys[i] == element) {
+				keys[i]= element;
+				keyRows[i]= row;
+				return;
+			}
+		}
+	}
+
+	private static int hash(TestElement element) {
+		int h= System.identityHashCode(element) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
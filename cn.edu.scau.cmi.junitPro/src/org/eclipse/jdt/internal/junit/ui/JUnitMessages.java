@@ -279,6 +279,12 @@ public final class JUnitMessages extends NLS {
 
 	public static String TestRunnerViewPart_ExportTestRunSessionAction_title;
 
+	public static String TestRunnerViewPart_ImportTestRunDirectoryAction_message;
+
+	public static String TestRunnerViewPart_ImportTestRunDirectoryAction_name;
+
+	public static String TestRunnerViewPart_ImportTestRunDirectoryAction_title;
+
 	public static String TestRunnerViewPart_ImportTestRunSessionAction_error_title;
 
 	public static String TestRunnerViewPart_ImportTestRunSessionAction_name;
@@ -310,6 +316,7 @@ public final class JUnitMessages extends NLS {
 	public static String TestRunnerViewPart_test_runs;
 	public static String TestRunnerViewPart_select_test_run;
 	public static String TestRunnerViewPart_testName_startTime;
+	public static String TestRunnerViewPart_testName_memory;
 	public static String TestRunnerViewPart_max_remembered;
 	public static String TestRunnerViewPart_show_execution_time;
 
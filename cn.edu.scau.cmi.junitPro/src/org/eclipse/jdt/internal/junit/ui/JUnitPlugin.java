@@ -154,7 +154,16 @@ public class JUnitPlugin extends AbstractUIPlugin {
 	}
 
 	public static void log(IStatus status) {
-		getDefault().getLog().log(status);
+		JUnitPlugin plugin= getDefault();
+		if (plugin != null) {
+			plugin.getLog().log(status);
+			return;
+		}
+		// not running in the workbench, e.g. in a TestRunEngine
+		System.err.println(status.getMessage());
+		Throwable exception= status.getException();
+		if (exception != null)
+			exception.printStackTrace();
 	}
 
 	public static ImageDescriptor getImageDescriptor(String relativePath) {
@@ -414,7 +423,13 @@ public class JUnitPlugin extends AbstractUIPlugin {
 		return section;
 	}
 
+	/**
+	 * @return the directory of the test run history, see {@link org.eclipse.jdt.internal.junit.model.TestRunHistory}
+	 * @throws IllegalStateException if the plug-in is not running or has no state location
+	 */
 	public static File getHistoryDirectory() throws IllegalStateException {
+		if (getDefault() == null)
+			throw new IllegalStateException("JUnit plug-in is not running"); //$NON-NLS-1$
 		File historyDir= getDefault().getStateLocation().append(HISTORY_DIR_NAME).toFile();
 		if (! historyDir.isDirectory()) {
 			historyDir.mkdir();
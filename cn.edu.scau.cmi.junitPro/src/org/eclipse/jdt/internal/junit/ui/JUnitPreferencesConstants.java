@@ -53,6 +53,19 @@ public class JUnitPreferencesConstants {
 	 */
 	public static final String MAX_TEST_RUNS= JUnitPlugin.PLUGIN_ID + ".max_test_runs"; //$NON-NLS-1$
 
+	/**
+	 * Maximum number of failure traces of a test run that are kept in memory.
+	 * Older traces are written to a file and read back on demand.
+	 */
+	public static final String MAX_TRACES_IN_MEMORY= JUnitPlugin.PLUGIN_ID + ".max_traces_in_memory"; //$NON-NLS-1$
+
+	/**
+	 * Maximum estimated heap, in megabytes, of the test trees of the remembered
+	 * test runs. When it is exceeded, the test trees of the least recently viewed
+	 * runs are swapped to disk. 0 stands for a quarter of the maximum heap.
+	 */
+	public static final String MAX_TEST_RUN_MEMORY= JUnitPlugin.PLUGIN_ID + ".max_test_run_memory"; //$NON-NLS-1$
+
 	/**
 	 * Javadoc location for JUnit 3
 	 */
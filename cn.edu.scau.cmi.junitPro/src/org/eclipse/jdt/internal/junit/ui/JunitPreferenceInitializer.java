@@ -37,6 +37,8 @@ public class JunitPreferenceInitializer extends AbstractPreferenceInitializer {
 		prefs.setDefault(JUnitPreferencesConstants.PREF_ACTIVE_FILTERS_LIST, active);
 		prefs.setDefault(JUnitPreferencesConstants.PREF_INACTIVE_FILTERS_LIST, ""); //$NON-NLS-1$
 		prefs.setDefault(JUnitPreferencesConstants.MAX_TEST_RUNS, 10);
+		prefs.setDefault(JUnitPreferencesConstants.MAX_TRACES_IN_MEMORY, 1000);
+		prefs.setDefault(JUnitPreferencesConstants.MAX_TEST_RUN_MEMORY, 0);
 
 		// see http://sourceforge.net/tracker/index.php?func=detail&aid=1877429&group_id=15278&atid=115278
 		prefs.setDefault(JUnitPreferencesConstants.JUNIT3_JAVADOC, "http://www.junit.org/junit/javadoc/3.8.1"); //$NON-NLS-1$
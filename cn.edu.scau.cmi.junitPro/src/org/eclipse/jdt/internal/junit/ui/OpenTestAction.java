@@ -36,7 +36,6 @@ import org.eclipse.jdt.internal.corext.util.JavaConventionsUtil;
 import org.eclipse.jdt.internal.junit.BasicElementLabels;
 import org.eclipse.jdt.internal.junit.Messages;
 import org.eclipse.jdt.internal.junit.model.TestCaseElement;
-import org.eclipse.jdt.internal.junit.model.TestElement;
 
 /**
  * Open a class on a Test method.
@@ -51,7 +50,7 @@ public class OpenTestAction extends OpenEditorAction {
 		this(testRunnerPart, testCase.getClassName(), extractRealMethodName(testCase.getTestMethodName()), true);
 		String trace= testCase.getTrace();
 		if (trace != null) {
-			String rawClassName= TestElement.extractRawClassName(testCase.getTestName());
+			String rawClassName= testCase.getRawClassName();
 			rawClassName= rawClassName.replaceAll("\\.", "\\\\."); //$NON-NLS-1$//$NON-NLS-2$
 			rawClassName= rawClassName.replaceAll("\\$", "\\\\\\$"); //$NON-NLS-1$//$NON-NLS-2$
 			Pattern pattern= Pattern.compile(FailureTrace.FRAME_PREFIX
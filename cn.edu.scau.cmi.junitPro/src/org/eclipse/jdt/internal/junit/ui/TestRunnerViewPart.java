@@ -19,6 +19,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jdt.junit.model.ITestElement.Result;
 
@@ -42,6 +44,7 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Layout;
@@ -56,6 +59,7 @@ import org.eclipse.core.commands.IHandler;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.core.runtime.jobs.Job;
@@ -71,7 +75,9 @@ import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.dialogs.ErrorDialog;
 import org.eclipse.jface.dialogs.IDialogSettings;
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.resource.ImageDescriptor;
 
 import org.eclipse.ui.IActionBars;
@@ -121,6 +127,7 @@ import org.eclipse.jdt.internal.junit.model.JUnitModel;
 import org.eclipse.jdt.internal.junit.model.TestCaseElement;
 import org.eclipse.jdt.internal.junit.model.TestElement;
 import org.eclipse.jdt.internal.junit.model.TestRunSession;
+import org.eclipse.jdt.internal.junit.util.ExceptionHandler;
 
 import org.eclipse.jdt.internal.ui.viewsupport.ViewHistory;
 
@@ -134,7 +141,31 @@ public class TestRunnerViewPart extends ViewPart {
 	private static final String RERUN_LAST_COMMAND= "org.eclipse.jdt.junit.junitShortcut.rerunLast"; //$NON-NLS-1$
 	private static final String RERUN_FAILED_FIRST_COMMAND= "org.eclipse.jdt.junit.junitShortcut.rerunFailedFirst"; //$NON-NLS-1$
 
+	/**
+	 * The initial delay between a model change and the refresh of the view.
+	 */
 	static final int REFRESH_INTERVAL= 200;
+	/**
+	 * The shortest delay, used while tests report only a few changes per refresh.
+	 */
+	static final int MIN_REFRESH_INTERVAL= 50;
+	/**
+	 * The longest delay, used while tests report bursts of changes.
+	 */
+	static final int MAX_REFRESH_INTERVAL= 800;
+	/**
+	 * Up to this number of changes per refresh, the delay is shortened.
+	 */
+	private static final int SPARSE_CHANGES= 8;
+	/**
+	 * Above this number of changes per refresh, the delay is extended.
+	 */
+	private static final int BURST_CHANGES= 100;
+	/**
+	 * The delay is at least this multiple of the time a refresh took, so that the
+	 * UI thread does not spend more than a fraction of its time on refreshing.
+	 */
+	private static final int REFRESH_LOAD_FACTOR= 4;
 
 	static final int LAYOUT_FLAT= 0;
 	static final int LAYOUT_HIERARCHICAL= 1;
@@ -275,7 +306,7 @@ public class TestRunnerViewPart extends ViewPart {
 	/**
 	 * A Job that periodically updates view description, counters, and progress bar.
 	 */
-	private UpdateUIJob fUpdateJob;
+	private volatile UpdateUIJob fUpdateJob;
 
 	/**
 	 * A Job that runs as long as a test run is running.
@@ -348,6 +379,7 @@ public class TestRunnerViewPart extends ViewPart {
 			TestRunSession deactivatedSession= setActiveTestRunSession((TestRunSession) entry);
 			if (deactivatedSession != null)
 				deactivatedSession.swapOut();
+			JUnitPlugin.getModel().enforceMemoryBudget();
 		}
 
 		public void setHistoryEntries(List remainingEntries, Object activeEntry) {
@@ -386,16 +418,24 @@ public class TestRunnerViewPart extends ViewPart {
 		public String getText(Object element) {
 			TestRunSession session= (TestRunSession) element;
 			String testRunLabel= BasicElementLabels.getJavaElementName(session.getTestRunName());
-			if (session.getStartTime() == 0) {
-				return testRunLabel;
-			} else {
+			if (session.getStartTime() != 0) {
 				String startTime= DateFormat.getDateTimeInstance().format(new Date(session.getStartTime()));
-				return Messages.format(JUnitMessages.TestRunnerViewPart_testName_startTime, new Object[] { testRunLabel, startTime });
+				testRunLabel= Messages.format(JUnitMessages.TestRunnerViewPart_testName_startTime, new Object[] { testRunLabel, startTime });
+			}
+			long memory= session.getEstimatedMemory();
+			if (memory > 0) {
+				NumberFormat format= NumberFormat.getNumberInstance();
+				format.setMinimumFractionDigits(1);
+				format.setMaximumFractionDigits(1);
+				String megabytes= format.format(memory / (1024d * 1024d));
+				testRunLabel= Messages.format(JUnitMessages.TestRunnerViewPart_testName_memory, new Object[] { testRunLabel, megabytes });
 			}
+			return testRunLabel;
 		}
 
 		public void addMenuEntries(MenuManager manager) {
 			manager.appendToGroup(IWorkbenchActionConstants.MB_ADDITIONS, new ImportTestRunSessionAction(fParent.getShell()));
+			manager.appendToGroup(IWorkbenchActionConstants.MB_ADDITIONS, new ImportTestRunDirectoryAction(fParent.getShell()));
 			if (fTestRunSession != null)
 				manager.appendToGroup(IWorkbenchActionConstants.MB_ADDITIONS, new ExportTestRunSessionAction(fParent.getShell(), fTestRunSession));
 		}
@@ -431,20 +471,80 @@ public class TestRunnerViewPart extends ViewPart {
 			if (lastPath != null) {
 				importDialog.setFilterPath(lastPath);
 			}
-			importDialog.setFilterExtensions(new String[] {"*.xml", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$
+			importDialog.setFilterExtensions(new String[] {"*.xml;*.xml.gz", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$
 			String path= importDialog.open();
 			if (path == null)
 				return;
 
 			//TODO: MULTI: getFileNames()
-			File file= new File(path);
+			importTestRunSession(fShell, new File(path), false);
+		}
+
+		/**
+		 * Reads a test run session in a progress dialog and adds it to the model.
+		 *
+		 * @param shell the parent shell
+		 * @param file the file or directory to import
+		 * @param isDirectory <code>true</code> to import all JUnit XML reports in a directory
+		 */
+		static void importTestRunSession(Shell shell, final File file, final boolean isDirectory) {
+			final TestRunSession[] session= new TestRunSession[1];
+			IRunnableWithProgress runnable= new IRunnableWithProgress() {
+				public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
+					try {
+						if (isDirectory)
+							session[0]= JUnitModel.readTestRunDirectory(file, monitor);
+						else
+							session[0]= JUnitModel.readTestRunSession(file, monitor);
+					} catch (CoreException e) {
+						throw new InvocationTargetException(e);
+					} catch (OperationCanceledException e) {
+						throw new InterruptedException();
+					}
+				}
+			};
 
 			try {
-				JUnitModel.importTestRunSession(file);
-			} catch (CoreException e) {
-				JUnitPlugin.log(e);
-				ErrorDialog.openError(fShell, JUnitMessages.TestRunnerViewPart_ImportTestRunSessionAction_error_title, e.getStatus().getMessage(), e.getStatus());
+				new ProgressMonitorDialog(shell).run(true, true, runnable);
+				JUnitPlugin.getModel().addTestRunSession(session[0]);
+			} catch (InvocationTargetException e) {
+				Throwable target= e.getTargetException();
+				if (target instanceof CoreException) {
+					IStatus status= ((CoreException) target).getStatus();
+					JUnitPlugin.log(target);
+					ErrorDialog.openError(shell, JUnitMessages.TestRunnerViewPart_ImportTestRunSessionAction_error_title, status.getMessage(), status);
+				} else {
+					ExceptionHandler.handle(e, shell, JUnitMessages.TestRunnerViewPart_ImportTestRunSessionAction_error_title, null);
+				}
+			} catch (InterruptedException e) {
+				// cancelled
+			}
+		}
+	}
+
+	private static class ImportTestRunDirectoryAction extends Action {
+		private final Shell fShell;
+
+		public ImportTestRunDirectoryAction(Shell shell) {
+			super(JUnitMessages.TestRunnerViewPart_ImportTestRunDirectoryAction_name);
+			fShell= shell;
+		}
+
+		public void run() {
+			DirectoryDialog importDialog= new DirectoryDialog(fShell);
+			importDialog.setText(JUnitMessages.TestRunnerViewPart_ImportTestRunDirectoryAction_title);
+			importDialog.setMessage(JUnitMessages.TestRunnerViewPart_ImportTestRunDirectoryAction_message);
+			IDialogSettings dialogSettings= JUnitPlugin.getDefault().getDialogSettings();
+			String lastPath= dialogSettings.get(PREF_LAST_PATH);
+			if (lastPath != null) {
+				importDialog.setFilterPath(lastPath);
 			}
+			String path= importDialog.open();
+			if (path == null)
+				return;
+
+			dialogSettings.put(PREF_LAST_PATH, path);
+			ImportTestRunSessionAction.importTestRunSession(fShell, new File(path), true);
 		}
 	}
 
@@ -467,7 +567,7 @@ public class TestRunnerViewPart extends ViewPart {
 				exportDialog.setFilterPath(lastPath);
 			}
 			exportDialog.setFileName(getFileName());
-			exportDialog.setFilterExtensions(new String[] {"*.xml", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$
+			exportDialog.setFilterExtensions(new String[] {"*.xml", "*.xml.gz", "*.*"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			String path= exportDialog.open();
 			if (path == null)
 				return;
@@ -590,6 +690,7 @@ public class TestRunnerViewPart extends ViewPart {
 			String method= BasicElementLabels.getJavaElementName(testCaseElement.getTestMethodName());
 			String status= Messages.format(JUnitMessages.TestRunnerViewPart_message_started, new String[] { className, method });
 			registerInfoMessage(status);
+			registerModelChange();
 		}
 
 		public void testFailed(TestElement testElement, TestElement.Status status, String trace, String expected, String actual) {
@@ -597,6 +698,7 @@ public class TestRunnerViewPart extends ViewPart {
 				fTestViewer.registerFailedForAutoScroll(testElement);
 			}
 			fTestViewer.registerViewerUpdate(testElement);
+			registerModelChange();
 
 		    // show the view on the first error only
 		    if (fShowOnErrorOnly && (getErrorsPlusFailures() == 1))
@@ -614,6 +716,7 @@ public class TestRunnerViewPart extends ViewPart {
 
 		public void testEnded(TestCaseElement testCaseElement){
 			fTestViewer.registerViewerUpdate(testCaseElement);
+			registerModelChange();
 		}
 
 		public void testReran(TestCaseElement testCaseElement, TestElement.Status status, String trace, String expectedResult, String actualResult) {
@@ -624,6 +727,7 @@ public class TestRunnerViewPart extends ViewPart {
 
 		public void testAdded(TestElement testElement) {
 			fTestViewer.registerTestAdded(testElement);
+			registerModelChange();
 		}
 
 		public boolean acceptsSwapToDisk() {
@@ -631,21 +735,57 @@ public class TestRunnerViewPart extends ViewPart {
 		}
 	}
 
+	/**
+	 * Refreshes the view while a test run is running. The job is only scheduled
+	 * after the model has changed, see {@link #modelChanged()}.
+	 * <p>
+	 * The delay adapts to the rate of changes: it is shortened while tests
+	 * report only a few changes, so that a slow run is shown promptly, and it
+	 * is extended during bursts of changes, which are then coalesced into
+	 * fewer refreshes.
+	 * </p>
+	 */
 	private class UpdateUIJob extends UIJob {
-		private boolean fRunning= true;
+		private volatile boolean fRunning= true;
+		/**
+		 * The number of model changes since the last refresh.
+		 */
+		private final AtomicInteger fChanges= new AtomicInteger();
+		private volatile long fDelay= REFRESH_INTERVAL;
 
 		public UpdateUIJob(String name) {
 			super(name);
 			setSystem(true);
 		}
+
+		/**
+		 * Schedules a refresh for the first change after a refresh. Can be
+		 * called in any thread.
+		 */
+		public void modelChanged() {
+			if (fChanges.getAndIncrement() == 0)
+				schedule(fDelay);
+		}
+
 		public IStatus runInUIThread(IProgressMonitor monitor) {
-			if (!isDisposed()) {
+			int changes= fChanges.getAndSet(0);
+			if (changes > 0 && !isDisposed()) {
+				long start= System.currentTimeMillis();
 				processChangesInUI();
+				adaptDelay(changes, System.currentTimeMillis() - start);
 			}
-			schedule(REFRESH_INTERVAL);
 			return Status.OK_STATUS;
 		}
 
+		private void adaptDelay(int changes, long refreshTime) {
+			long delay= fDelay;
+			if (changes <= SPARSE_CHANGES)
+				delay= Math.max(delay / 2, MIN_REFRESH_INTERVAL);
+			else if (changes > BURST_CHANGES)
+				delay= Math.min(delay * 2, MAX_REFRESH_INTERVAL);
+			fDelay= Math.min(Math.max(delay, refreshTime * REFRESH_LOAD_FACTOR), MAX_REFRESH_INTERVAL);
+		}
+
 		public void stop() {
 			fRunning= false;
 		}
@@ -1023,7 +1163,6 @@ public class TestRunnerViewPart extends ViewPart {
 		getProgressService().schedule(fJUnitIsRunningJob);
 
 		fUpdateJob= new UpdateUIJob(JUnitMessages.TestRunnerViewPart_jobName);
-		fUpdateJob.schedule(REFRESH_INTERVAL);
 	}
 
 	private void stopUpdateJobs() {
@@ -1038,6 +1177,16 @@ public class TestRunnerViewPart extends ViewPart {
 		postSyncProcessChanges();
 	}
 
+	/**
+	 * Schedules a refresh of the view after a change of the running test
+	 * run session. Can be called in any thread.
+	 */
+	private void registerModelChange() {
+		UpdateUIJob updateJob= fUpdateJob;
+		if (updateJob != null)
+			updateJob.modelChanged();
+	}
+
 	private void processChangesInUI() {
 		if (fSashForm.isDisposed())
 			return;
@@ -1216,13 +1365,17 @@ public class TestRunnerViewPart extends ViewPart {
 	}
 
 	private void updateViewIcon() {
+		Image viewImage;
 		if (fTestRunSession == null || fTestRunSession.isStopped() || fTestRunSession.isRunning() || fTestRunSession.getStartedCount() == 0)
-			fViewImage= fOriginalViewImage;
+			viewImage= fOriginalViewImage;
 		else if (hasErrorsOrFailures())
-			fViewImage= fTestRunFailIcon;
+			viewImage= fTestRunFailIcon;
 		else
-			fViewImage= fTestRunOKIcon;
-		firePropertyChange(IWorkbenchPart.PROP_TITLE);
+			viewImage= fTestRunOKIcon;
+		if (viewImage != fViewImage) {
+			fViewImage= viewImage;
+			firePropertyChange(IWorkbenchPart.PROP_TITLE);
+		}
 	}
 
 	private void updateViewTitleProgress() {
@@ -1299,6 +1452,7 @@ action enablement
 			fRerunLastTestAction.setEnabled(false);
 
 		} else {
+			fTestRunSession.markViewed();
 			fTestSessionListener= new TestSessionListener();
 			fTestRunSession.addTestSessionListener(fTestSessionListener);
 
@@ -1396,10 +1550,11 @@ action enablement
 			getDisplay().syncExec(r);
 	}
 
+	/**
+	 * Updates the counters and the progress bar. Both only redraw when a
+	 * value has changed.
+	 */
 	private void refreshCounters() {
-		 // TODO: Inefficient. Either
-		// - keep a boolean fHasTestRun and update only on changes, or
-		// - improve components to only redraw on changes (once!).
 
 		int startedCount;
 		int ignoredCount;
@@ -11,41 +11,92 @@
 
 package org.eclipse.jdt.internal.junit.ui;
 
-import java.util.ArrayList;
-
-import org.eclipse.jdt.junit.model.ITestElement;
-
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
 
-import org.eclipse.jdt.internal.junit.model.TestCaseElement;
-import org.eclipse.jdt.internal.junit.model.TestRoot;
-import org.eclipse.jdt.internal.junit.model.TestSuiteElement;
+import org.eclipse.jdt.internal.junit.model.TestElement;
+
+/**
+ * Content provider for the virtual table of the test viewer. The rows are
+ * read from a {@link FlatTestIndex}, which is kept up to date by the test
+ * viewer, and table items are only created for visible rows.
+ * <p>
+ * Virtual viewers don't support filters, so the content provider shows the
+ * failure rows of the index instead, see {@link #setFailuresOnly(boolean)}.
+ * </p>
+ */
+public class TestSessionTableContentProvider implements ILazyContentProvider {
 
+	private final FlatTestIndex fIndex;
+	private TableViewer fViewer;
+	private boolean fHasInput;
+	private boolean fFailuresOnly;
+	/**
+	 * The number of rows that have been reported to the viewer.
+	 */
+	private int fItemCount;
 
-public class TestSessionTableContentProvider implements IStructuredContentProvider {
+	/**
+	 * @param index the index, which has to be {@link FlatTestIndex#validate(org.eclipse.jdt.internal.junit.model.TestRoot, boolean) valid}
+	 * 	for the input whenever the input is set or the rows are updated
+	 */
+	TestSessionTableContentProvider(FlatTestIndex index) {
+		fIndex= index;
+	}
 
 	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		fViewer= (TableViewer) viewer;
+		fHasInput= newInput != null;
+		fIndex.takeFirstChange(fFailuresOnly);
+		fItemCount= getRowCount();
+		if (! fViewer.getControl().isDisposed())
+			fViewer.setItemCount(fItemCount);
+	}
+
+	/**
+	 * Sets whether only the failure rows are shown. The input of the viewer
+	 * has to be set afterwards.
+	 *
+	 * @param failuresOnly <code>true</code> to show failures only
+	 */
+	public void setFailuresOnly(boolean failuresOnly) {
+		fFailuresOnly= failuresOnly;
+	}
+
+	public void updateElement(int index) {
+		if (index < fItemCount && index < getRowCount())
+			fViewer.replace(fIndex.get(fFailuresOnly, index), index);
+	}
+
+	/**
+	 * Updates the number of rows after the index has changed.
+	 *
+	 * @return <code>true</code> iff rows have been inserted or removed before
+	 * 	the end and the viewer has to be refreshed
+	 */
+	public boolean updateElements() {
+		int firstChange= fIndex.takeFirstChange(fFailuresOnly);
+		int oldItemCount= fItemCount;
+		fItemCount= getRowCount();
+		if (fItemCount != oldItemCount)
+			fViewer.setItemCount(fItemCount);
+		return firstChange < oldItemCount;
+	}
+
+	/**
+	 * @param element the element
+	 * @return the row of the element, or -1 if it is not shown
+	 */
+	public int indexOf(TestElement element) {
+		if (! fHasInput)
+			return -1;
+		int index= fIndex.indexOf(fFailuresOnly, element);
+		return index < fItemCount ? index : -1;
 	}
 
-	public Object[] getElements(Object inputElement) {
-		ArrayList all= new ArrayList();
-		addAll(all, (TestRoot) inputElement);
-		return all.toArray();
-	}
-
-	private void addAll(ArrayList all, TestSuiteElement suite) {
-		ITestElement[] children= suite.getChildren();
-		for (int i= 0; i < children.length; i++) {
-			ITestElement element= children[i];
-			if (element instanceof TestSuiteElement) {
-				if (((TestSuiteElement) element).getSuiteStatus().isErrorOrFailure())
-					all.add(element); // add failed suite to flat list too
-				addAll(all, (TestSuiteElement) element);
-			} else if (element instanceof TestCaseElement) {
-				all.add(element);
-			}
-		}
+	private int getRowCount() {
+		return fHasInput ? fIndex.size(fFailuresOnly) : 0;
 	}
 
 	public void dispose() {
@@ -11,43 +11,130 @@
 
 package org.eclipse.jdt.internal.junit.ui;
 
-import org.eclipse.jface.viewers.ITreeContentProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
+import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerFilter;
 
 import org.eclipse.jdt.internal.junit.model.TestElement;
-import org.eclipse.jdt.internal.junit.model.TestRoot;
 import org.eclipse.jdt.internal.junit.model.TestSuiteElement;
 
+/**
+ * Content provider for the virtual tree of the test viewer. Tree items are only
+ * created for the children of expanded suites when they become visible, and
+ * children that have been swapped to disk are only read at that time.
+ * <p>
+ * Virtual viewers don't support {@link ViewerFilter}s, so a filter is applied
+ * by the content provider itself, see {@link #setFilter(ViewerFilter)}.
+ * </p>
+ */
+public class TestSessionTreeContentProvider implements ILazyTreeContentProvider {
 
-public class TestSessionTreeContentProvider implements ITreeContentProvider {
+	private static final TestElement[] NO_CHILDREN= new TestElement[0];
 
-	private final Object[] NO_CHILDREN= new Object[0];
+	private TreeViewer fViewer;
+	private ViewerFilter fFilter;
+	/**
+	 * The children that have been reported to the viewer, per suite. Only
+	 * used with a filter.
+	 */
+	private final Map/*<TestSuiteElement, TestElement[]>*/ fShownChildren= new HashMap();
 
 	public void dispose() {
+		fShownChildren.clear();
 	}
 
-	public Object[] getChildren(Object parentElement) {
-		if (parentElement instanceof TestSuiteElement)
-			return ((TestSuiteElement) parentElement).getChildren();
-		else
-			return NO_CHILDREN;
+	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		fViewer= (TreeViewer) viewer;
+		fShownChildren.clear();
+	}
+
+	/**
+	 * Sets the filter. The viewer has to be refreshed afterwards.
+	 *
+	 * @param filter the filter, or <code>null</code> to show all tests
+	 */
+	public void setFilter(ViewerFilter filter) {
+		fFilter= filter;
+		fShownChildren.clear();
+	}
+
+	public void updateChildCount(Object element, int currentChildCount) {
+		int count= 0;
+		if (element instanceof TestSuiteElement) {
+			TestSuiteElement suite= (TestSuiteElement) element;
+			count= fFilter == null ? suite.getChildCount() : getShownChildren(suite).length;
+		}
+		if (count != currentChildCount)
+			fViewer.setChildCount(element, count);
 	}
 
-	public Object[] getElements(Object inputElement) {
-		return ((TestRoot) inputElement).getChildren();
+	public void updateElement(Object parent, int index) {
+		TestSuiteElement suite= (TestSuiteElement) parent;
+		TestElement child;
+		if (fFilter == null) {
+			if (index >= suite.getChildCount())
+				return; // the viewer is refreshed later
+			child= suite.getChild(index);
+		} else {
+			TestElement[] shownChildren= getShownChildren(suite);
+			if (index >= shownChildren.length)
+				return;
+			child= shownChildren[index];
+		}
+		fViewer.replace(parent, index, child);
+		if (child instanceof TestSuiteElement)
+			updateChildCount(child, -1);
 	}
 
 	public Object getParent(Object element) {
 		return ((TestElement) element).getParent();
 	}
 
-	public boolean hasChildren(Object element) {
-		if (element instanceof TestSuiteElement)
-			return ((TestSuiteElement) element).getChildren().length != 0;
-		else
+	/**
+	 * Updates the filtered children of a suite that have been reported to the viewer.
+	 *
+	 * @param suite the suite
+	 * @return <code>true</code> iff the shown children of the suite have changed
+	 * 	and the suite has to be refreshed in the viewer
+	 */
+	public boolean updateShownChildren(TestSuiteElement suite) {
+		TestElement[] shownChildren= (TestElement[]) fShownChildren.get(suite);
+		if (fFilter == null || shownChildren == null)
+			return false;
+		TestElement[] newShownChildren= computeShownChildren(suite);
+		if (Arrays.equals(shownChildren, newShownChildren))
 			return false;
+		fShownChildren.put(suite, newShownChildren);
+		return true;
 	}
 
-	public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+	private TestElement[] getShownChildren(TestSuiteElement suite) {
+		TestElement[] shownChildren= (TestElement[]) fShownChildren.get(suite);
+		if (shownChildren == null) {
+			shownChildren= computeShownChildren(suite);
+			fShownChildren.put(suite, shownChildren);
+		}
+		return shownChildren;
+	}
+
+	private TestElement[] computeShownChildren(TestSuiteElement suite) {
+		ArrayList shownChildren= null;
+		for (int i= 0, count= suite.getChildCount(); i < count; i++) {
+			TestElement child= suite.getChild(i);
+			if (fFilter.select(fViewer, suite, child)) {
+				if (shownChildren == null)
+					shownChildren= new ArrayList();
+				shownChildren.add(child);
+			}
+		}
+		if (shownChildren == null)
+			return NO_CHILDREN;
+		return (TestElement[]) shownChildren.toArray(new TestElement[shownChildren.size()]);
 	}
 }
@@ -13,13 +13,13 @@
 
 package org.eclipse.jdt.internal.junit.ui;
 
-import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.ListIterator;
 
 import org.eclipse.swt.SWT;
@@ -28,8 +28,13 @@ import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Item;
 import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Widget;
+
+import org.eclipse.core.runtime.Platform;
 
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuListener;
@@ -68,6 +73,24 @@ import org.eclipse.jdt.internal.ui.viewsupport.SelectionProviderMediator;
 
 
 public class TestViewer {
+	/**
+	 * Key of the {@link RenderedLabel} of a tree or table item.
+	 */
+	private static final String RENDERED_LABEL_KEY= "org.eclipse.jdt.junit.renderedLabel"; //$NON-NLS-1$
+
+	/**
+	 * The state of a test element that an item has last been updated with.
+	 */
+	private static final class RenderedLabel {
+		final Object fElement;
+		final long fState;
+
+		RenderedLabel(Object element, long state) {
+			fElement= element;
+			fState= state;
+		}
+	}
+
 	private final class TestSelectionListener implements ISelectionChangedListener {
 		public void selectionChanged(SelectionChangedEvent event) {
 			handleSelected();
@@ -94,19 +117,6 @@ public class TestViewer {
 		}
 	}
 
-	private static class ReverseList extends AbstractList {
-		private final List fList;
-		public ReverseList(List list) {
-			fList= list;
-		}
-		public Object get(int index) {
-			return fList.get(fList.size() - index - 1);
-		}
-		public int size() {
-			return fList.size();
-		}
-	}
-
 	private class ExpandAllAction extends Action {
 		public ExpandAllAction() {
 			setText(JUnitMessages.ExpandAllAction_text);
@@ -118,7 +128,22 @@ public class TestViewer {
 		}
 	}
 
+	/**
+	 * Whether the label counters are printed after each call of
+	 * {@link #processChangesInUI()}, see the <code>.options</code> file.
+	 */
+	private static final boolean TRACE_LABEL_UPDATES= JUnitPlugin.getDefault().isDebugging()
+			&& "true".equalsIgnoreCase(Platform.getDebugOption(JUnitPlugin.PLUGIN_ID + "/debug/labelUpdates")); //$NON-NLS-1$ //$NON-NLS-2$
+
 	private final FailuresOnlyFilter fFailuresOnlyFilter= new FailuresOnlyFilter();
+	/**
+	 * The number of labels that have been pushed to the viewers and that
+	 * have been skipped because they have not changed, in the last call of
+	 * {@link #processChangesInUI()}.
+	 */
+	private int fUpdatedLabels;
+	private int fSkippedLabels;
+	private final FlatTestIndex fFlatIndex= new FlatTestIndex(fFailuresOnlyFilter);
 
 	private final TestRunnerViewPart fTestRunnerPart;
 	private final Clipboard fClipboard;
@@ -141,6 +166,13 @@ public class TestViewer {
 	private boolean fTreeNeedsRefresh;
 	private boolean fTableNeedsRefresh;
 	private HashSet/*<TestElement>*/ fNeedUpdate;
+	/*
+	 * Changes for fFlatIndex, which are kept apart from fNeedUpdate, because
+	 * those are dropped when a viewer is refreshed.
+	 */
+	private ArrayList/*<TestElement>*/ fFlatIndexAdded= new ArrayList();
+	private ArrayList/*<TestElement>*/ fFlatIndexChanged= new ArrayList();
+	private boolean fFlatIndexNeedsReset;
 	private TestCaseElement fAutoScrollTarget;
 
 	private LinkedList/*<TestSuiteElement>*/ fAutoClose;
@@ -163,16 +195,16 @@ public class TestViewer {
 	private void createTestViewers(Composite parent) {
 		fViewerbook= new PageBook(parent, SWT.NULL);
 
-		fTreeViewer= new TreeViewer(fViewerbook, SWT.V_SCROLL | SWT.SINGLE);
+		fTreeViewer= new TreeViewer(fViewerbook, SWT.V_SCROLL | SWT.SINGLE | SWT.VIRTUAL);
 		fTreeViewer.setUseHashlookup(true);
 		fTreeContentProvider= new TestSessionTreeContentProvider();
 		fTreeViewer.setContentProvider(fTreeContentProvider);
 		fTreeLabelProvider= new TestSessionLabelProvider(fTestRunnerPart, TestRunnerViewPart.LAYOUT_HIERARCHICAL);
 		fTreeViewer.setLabelProvider(new ColoringLabelProvider(fTreeLabelProvider));
 
-		fTableViewer= new TableViewer(fViewerbook, SWT.V_SCROLL | SWT.H_SCROLL | SWT.SINGLE);
+		fTableViewer= new TableViewer(fViewerbook, SWT.V_SCROLL | SWT.H_SCROLL | SWT.SINGLE | SWT.VIRTUAL);
 		fTableViewer.setUseHashlookup(true);
-		fTableContentProvider= new TestSessionTableContentProvider();
+		fTableContentProvider= new TestSessionTableContentProvider(fFlatIndex);
 		fTableViewer.setContentProvider(fTableContentProvider);
 		fTableLabelProvider= new TestSessionLabelProvider(fTestRunnerPart, TestRunnerViewPart.LAYOUT_FLAT);
 		fTableViewer.setLabelProvider(new ColoringLabelProvider(fTableLabelProvider));
@@ -334,17 +366,19 @@ public class TestViewer {
 					}
 				}
 				fLayoutMode= layoutMode;
+				if (layoutMode == TestRunnerViewPart.LAYOUT_HIERARCHICAL)
+					fFlatIndex.invalidate(); // rebuilt when the table is shown again
 				fViewerbook.showPage(getActiveViewer().getControl());
 			}
 
-			//avoid realizing all TableItems, especially in flat mode!
+			// the viewers are virtual, so the content providers do the filtering
 			StructuredViewer viewer= getActiveViewer();
 			if (failuresOnly) {
 				if (! getActiveViewerHasFilter()) {
 					setActiveViewerNeedsRefresh(true);
 					setActiveViewerHasFilter(true);
 					viewer.setInput(null);
-					viewer.addFilter(fFailuresOnlyFilter);
+					setActiveViewerFailuresOnly(true);
 				}
 
 			} else {
@@ -352,12 +386,14 @@ public class TestViewer {
 					setActiveViewerNeedsRefresh(true);
 					setActiveViewerHasFilter(false);
 					viewer.setInput(null);
-					viewer.removeFilter(fFailuresOnlyFilter);
+					setActiveViewerFailuresOnly(false);
 				}
 			}
 			processChangesInUI();
 
 			if (selection != null) {
+				if (selection.size() == 1)
+					createTableItem((TestElement) selection.getFirstElement());
 				// workaround for https://bugs.eclipse.org/bugs/show_bug.cgi?id=125708
 				// (ITreeSelection not adapted if TreePaths changed):
 				StructuredSelection flatSelection= new StructuredSelection(selection.toList());
@@ -383,6 +419,13 @@ public class TestViewer {
 			fTableHasFilter= filter;
 	}
 
+	private void setActiveViewerFailuresOnly(boolean failuresOnly) {
+		if (fLayoutMode == TestRunnerViewPart.LAYOUT_HIERARCHICAL)
+			fTreeContentProvider.setFilter(failuresOnly ? fFailuresOnlyFilter : null);
+		else
+			fTableContentProvider.setFailuresOnly(failuresOnly);
+	}
+
 	private StructuredViewer getActiveViewer() {
 		if (fLayoutMode == TestRunnerViewPart.LAYOUT_HIERARCHICAL)
 			return fTreeViewer;
@@ -415,11 +458,15 @@ public class TestViewer {
 			fTableNeedsRefresh= false;
 			fTreeViewer.setInput(null);
 			fTableViewer.setInput(null);
+			fFlatIndex.invalidate();
 			return;
 		}
 
 		testRoot= fTestRunSession.getTestRoot();
+		updateFlatIndex(testRoot, fLayoutMode == TestRunnerViewPart.LAYOUT_FLAT);
 
+		fUpdatedLabels= 0;
+		fSkippedLabels= 0;
 		StructuredViewer viewer= getActiveViewer();
 		if (getActiveViewerNeedsRefresh()) {
 			clearUpdateAndExpansion();
@@ -434,85 +481,168 @@ public class TestViewer {
 			}
 			if (! fTreeNeedsRefresh && toUpdate.length > 0) {
 				if (fTreeHasFilter)
-					for (int i= 0; i < toUpdate.length; i++)
-						updateElementInTree((TestElement) toUpdate[i]);
+					updateElementsInFilteredTree(toUpdate);
 				else {
 					HashSet toUpdateWithParents= new HashSet();
-					toUpdateWithParents.addAll(Arrays.asList(toUpdate));
-					for (int i= 0; i < toUpdate.length; i++) {
-						TestElement parent= ((TestElement) toUpdate[i]).getParent();
-						while (parent != null) {
-							toUpdateWithParents.add(parent);
-							parent= parent.getParent();
-						}
-					}
-					fTreeViewer.update(toUpdateWithParents.toArray(), null);
+					addWithAncestors(toUpdate, toUpdateWithParents);
+					updateLabels(fTreeViewer, toUpdateWithParents);
 				}
 			}
-			if (! fTableNeedsRefresh && toUpdate.length > 0) {
-				if (fTableHasFilter)
-					for (int i= 0; i < toUpdate.length; i++)
-						updateElementInTable((TestElement) toUpdate[i]);
-				else
-					fTableViewer.update(toUpdate, null);
+			if (! fTableNeedsRefresh) {
+				if (fTableContentProvider.updateElements())
+					fTableViewer.refresh();
+				else if (toUpdate.length > 0)
+					updateLabels(fTableViewer, Arrays.asList(toUpdate));
 			}
 		}
 		autoScrollInUI();
+
+		if (TRACE_LABEL_UPDATES && fUpdatedLabels + fSkippedLabels > 0)
+			System.out.println("TestViewer: updated " + fUpdatedLabels + " labels, skipped " + fSkippedLabels); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
-	private void updateElementInTree(final TestElement testElement) {
-		if (isShown(testElement)) {
-			updateShownElementInTree(testElement);
-		} else {
-			TestElement current= testElement;
-			do {
-				if (fTreeViewer.testFindItem(current) != null)
-					fTreeViewer.remove(current);
-				current= current.getParent();
-			} while (! (current instanceof TestRoot) && ! isShown(current));
-
-			while (current != null && ! (current instanceof TestRoot)) {
-				fTreeViewer.update(current, null);
-				current= current.getParent();
+	/**
+	 * Adds elements and all their ancestors to a set.
+	 *
+	 * @param elements the elements
+	 * @param result the set
+	 */
+	private static void addWithAncestors(Object[] elements, HashSet result) {
+		for (int i= 0; i < elements.length; i++) {
+			TestElement element= (TestElement) elements[i];
+			// stop at the first element that is already in the set, its ancestors are as well
+			while (element != null && result.add(element))
+				element= element.getParent();
+		}
+	}
+
+	/**
+	 * Updates the items of elements whose label has changed since their last
+	 * update. Elements without an item are skipped, since virtual viewers
+	 * compute the label when they create the item.
+	 *
+	 * @param viewer the viewer
+	 * @param elements the elements that may have changed
+	 */
+	private void updateLabels(StructuredViewer viewer, Collection elements) {
+		ArrayList changed= new ArrayList(elements.size());
+		for (Iterator iter= elements.iterator(); iter.hasNext();) {
+			TestElement element= (TestElement) iter.next();
+			Widget item= viewer.testFindItem(element);
+			if (! (item instanceof Item) || item.isDisposed()) {
+				fSkippedLabels++;
+				continue;
 			}
+			long state= getLabelState(element);
+			Object rendered= item.getData(RENDERED_LABEL_KEY);
+			if (rendered instanceof RenderedLabel
+					&& ((RenderedLabel) rendered).fElement == element
+					&& ((RenderedLabel) rendered).fState == state) {
+				fSkippedLabels++;
+				continue;
+			}
+			item.setData(RENDERED_LABEL_KEY, new RenderedLabel(element, state));
+			changed.add(element);
 		}
+		fUpdatedLabels+= changed.size();
+		if (! changed.isEmpty())
+			viewer.update(changed.toArray(), null);
 	}
 
-	private void updateShownElementInTree(TestElement testElement) {
-		if (testElement == null || testElement instanceof TestRoot) // paranoia null check
-			return;
+	/**
+	 * @param element the element
+	 * @return the state that determines the label and the icon of the element,
+	 * 	see {@link TestSessionLabelProvider}
+	 */
+	private static long getLabelState(TestElement element) {
+		double elapsedTime= element.getElapsedTimeInSeconds();
+		long time= Double.isNaN(elapsedTime) ? -1 : Math.round(elapsedTime * 1000);
+		int ignored= element instanceof TestCaseElement && ((TestCaseElement) element).isIgnored() ? 1 : 0;
+		return time << 8 | element.getStatus().ordinal() << 1 | ignored;
+	}
 
-		TestSuiteElement parent= testElement.getParent();
-		updateShownElementInTree(parent); // make sure parent is shown and up-to-date
+	/**
+	 * Applies the changes since the last call to the index of the flat layout.
+	 * The index is only rebuilt from the test tree when another session has
+	 * been activated, or when tests have not been added in tree order.
+	 * <p>
+	 * Building the index walks the whole tree, which swaps in all suites of a
+	 * session, so it is only built while the table is shown or when a failure
+	 * is navigated to. Otherwise, only an index that is still valid is updated.
+	 * </p>
+	 *
+	 * @param testRoot the test tree of the active session
+	 * @param build <code>true</code> to build the index if it is invalid
+	 */
+	private void updateFlatIndex(TestRoot testRoot, boolean build) {
+		Object[] added;
+		Object[] changed;
+		synchronized (this) {
+			if (fFlatIndexNeedsReset) {
+				fFlatIndex.invalidate();
+				fFlatIndexNeedsReset= false;
+			}
+			added= fFlatIndexAdded.toArray();
+			fFlatIndexAdded.clear();
+			changed= fFlatIndexChanged.toArray();
+			fFlatIndexChanged.clear();
+		}
+		boolean running= fTestRunSession.isRunning();
+		fFlatIndex.testsAdded(added);
+		fFlatIndex.testsChanged(changed, running);
+		if (build)
+			fFlatIndex.validate(testRoot, running);
+	}
 
-		if (fTreeViewer.testFindItem(testElement) == null) {
-			fTreeViewer.add(parent, testElement); // if not yet in tree: add
-		} else {
-			fTreeViewer.update(testElement, null); // if in tree: update
+	/**
+	 * Updates the tree after elements have changed while it shows failures
+	 * only. Suites whose shown children have changed are refreshed, the other
+	 * elements are only relabeled.
+	 *
+	 * @param toUpdate the changed elements
+	 */
+	private void updateElementsInFilteredTree(Object[] toUpdate) {
+		HashSet elements= new HashSet();
+		addWithAncestors(toUpdate, elements);
+		HashSet changedSuites= new HashSet();
+		for (Iterator iter= elements.iterator(); iter.hasNext();) {
+			Object element= iter.next();
+			if (element instanceof TestSuiteElement && fTreeContentProvider.updateShownChildren((TestSuiteElement) element))
+				changedSuites.add(element);
+		}
+		for (Iterator iter= changedSuites.iterator(); iter.hasNext();) {
+			TestSuiteElement suite= (TestSuiteElement) iter.next();
+			if (! hasAncestorIn(suite, changedSuites))
+				fTreeViewer.refresh(suite); // also refreshes changed suites below
 		}
+		updateLabels(fTreeViewer, elements);
 	}
 
-	private void updateElementInTable(TestElement element) {
-		if (isShown(element)) {
-			if (fTableViewer.testFindItem(element) == null) {
-				TestElement previous= getNextFailure(element, false);
-				int insertionIndex= -1;
-				if (previous != null) {
-					TableItem item= (TableItem) fTableViewer.testFindItem(previous);
-					if (item != null)
-						insertionIndex= fTableViewer.getTable().indexOf(item);
-				}
-				fTableViewer.insert(element, insertionIndex);
-			} else  {
-				fTableViewer.update(element, null);
-			}
-		} else {
-			fTableViewer.remove(element);
+	private static boolean hasAncestorIn(TestElement element, HashSet suites) {
+		for (TestElement parent= element.getParent(); parent != null; parent= parent.getParent()) {
+			if (suites.contains(parent))
+				return true;
 		}
+		return false;
 	}
 
-	private boolean isShown(TestElement current) {
-		return fFailuresOnlyFilter.select(current);
+	/**
+	 * Creates the item of an element in the virtual table, so that selecting
+	 * or revealing the element does not create all items before it.
+	 *
+	 * @param element the element
+	 * @return the item, or <code>null</code> if the table is not shown or
+	 * 	does not contain the element
+	 */
+	private TableItem createTableItem(TestElement element) {
+		if (fLayoutMode != TestRunnerViewPart.LAYOUT_FLAT || fTableNeedsRefresh)
+			return null;
+		int index= fTableContentProvider.indexOf(element);
+		Table table= fTableViewer.getTable();
+		if (index == -1 || index >= table.getItemCount())
+			return null;
+		fTableContentProvider.updateElement(index);
+		return table.getItem(index);
 	}
 
 	private void autoScrollInUI() {
@@ -523,8 +653,11 @@ public class TestViewer {
 		}
 
 		if (fLayoutMode == TestRunnerViewPart.LAYOUT_FLAT) {
-			if (fAutoScrollTarget != null)
-				fTableViewer.reveal(fAutoScrollTarget);
+			if (fAutoScrollTarget != null) {
+				TableItem item= createTableItem(fAutoScrollTarget);
+				if (item != null)
+					fTableViewer.getTable().showItem(item);
+			}
 			return;
 		}
 
@@ -564,79 +697,44 @@ public class TestViewer {
 	}
 
 	public void selectFirstFailure() {
-		TestCaseElement firstFailure= getNextChildFailure(fTestRunSession.getTestRoot(), true);
-		if (firstFailure != null)
+		TestCaseElement firstFailure= getNextFailure(null, true);
+		if (firstFailure != null) {
+			createTableItem(firstFailure);
 			getActiveViewer().setSelection(new StructuredSelection(firstFailure), true);
+		}
 	}
 
 	public void selectFailure(boolean showNext) {
 		IStructuredSelection selection= (IStructuredSelection) getActiveViewer().getSelection();
 		TestElement selected= (TestElement) selection.getFirstElement();
-		TestElement next;
+		TestElement next= getNextFailure(selected, showNext);
 
-		if (selected == null) {
-			next= getNextChildFailure(fTestRunSession.getTestRoot(), showNext);
-		} else {
-			next= getNextFailure(selected, showNext);
-		}
-
-		if (next != null)
+		if (next != null) {
+			createTableItem(next);
 			getActiveViewer().setSelection(new StructuredSelection(next), true);
-	}
-
-	private TestElement getNextFailure(TestElement selected, boolean showNext) {
-		if (selected instanceof TestSuiteElement) {
-			TestElement nextChild= getNextChildFailure((TestSuiteElement) selected, showNext);
-			if (nextChild != null)
-				return nextChild;
 		}
-		return getNextFailureSibling(selected, showNext);
 	}
 
-	private TestCaseElement getNextFailureSibling(TestElement current, boolean showNext) {
-		TestSuiteElement parent= current.getParent();
-		if (parent == null)
-			return null;
-
-		List siblings= Arrays.asList(parent.getChildren());
-		if (! showNext)
-			siblings= new ReverseList(siblings);
-
-		int nextIndex= siblings.indexOf(current) + 1;
-		for (int i= nextIndex; i < siblings.size(); i++) {
-			TestElement sibling= (TestElement) siblings.get(i);
-			if (sibling.getStatus().isErrorOrFailure()) {
-				if (sibling instanceof TestCaseElement) {
-					return (TestCaseElement) sibling;
-				} else {
-					return getNextChildFailure((TestSuiteElement) sibling, showNext);
-				}
-			}
-		}
-		return getNextFailureSibling(parent, showNext);
-	}
-
-	private TestCaseElement getNextChildFailure(TestSuiteElement root, boolean showNext) {
-		List children= Arrays.asList(root.getChildren());
-		if (! showNext)
-			children= new ReverseList(children);
-		for (int i= 0; i < children.size(); i++) {
-			TestElement child= (TestElement) children.get(i);
-			if (child.getStatus().isErrorOrFailure()) {
-				if (child instanceof TestCaseElement) {
-					return (TestCaseElement) child;
-				} else {
-					return getNextChildFailure((TestSuiteElement) child, showNext);
-				}
-			}
-		}
-		return null;
+	/**
+	 * Finds the next or previous failed test in the index of the flat layout,
+	 * which is built for this if the tree is shown.
+	 *
+	 * @param selected the selected element, or <code>null</code> for the first or last failure
+	 * @param showNext <code>true</code> for the next, <code>false</code> for the previous failure
+	 * @return the failed test, or <code>null</code> if there is none
+	 */
+	private TestCaseElement getNextFailure(TestElement selected, boolean showNext) {
+		updateFlatIndex(fTestRunSession.getTestRoot(), true);
+		return fFlatIndex.getFailedTest(selected, showNext);
 	}
 
 	public synchronized void registerViewersRefresh() {
 		fTreeNeedsRefresh= true;
 		fTableNeedsRefresh= true;
 		clearUpdateAndExpansion();
+		fFlatIndexAdded.clear();
+		fFlatIndexChanged.clear();
+		fFlatIndexNeedsReset= true;
 	}
 
 	private void clearUpdateAndExpansion() {
@@ -651,11 +749,12 @@ public class TestViewer {
 	public synchronized void registerTestAdded(TestElement testElement) {
 		//TODO: performance: would only need to refresh parent of added element
 		fTreeNeedsRefresh= true;
-		fTableNeedsRefresh= true;
+		fFlatIndexAdded.add(testElement);
 	}
 
 	public synchronized void registerViewerUpdate(final TestElement testElement) {
 		fNeedUpdate.add(testElement);
+		fFlatIndexChanged.add(testElement);
 	}
 
 	private synchronized void clearAutoExpand() {